@@ -0,0 +1,124 @@
+package net.orolle.vertigo.verticleflow.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.orolle.vertigo.verticleflow.translate.NoderedToVertigo;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Generates synthetic Node-RED flows and the vertigo networks they translate to.
+ * <ul>
+ * <li>chain: <code>width</code> independent chains of <code>depth</code> components</li>
+ * <li>fanout: a source wired to <code>width</code> chains of <code>depth</code> components</li>
+ * <li>diamond: <code>depth</code> stacked diamonds, each splitting through a round-robin grouping
+ * into <code>width</code> branches which join again, so the number of paths grows as width^depth</li>
+ * </ul>
+ */
+public class FlowGenerator {
+  public static final String MODULE = "net.orolle.bench~component~1.0";
+
+  private final JsonArray flow = new JsonArray();
+  private String tab;
+  private int ids = 0;
+
+  public static JsonArray flow(String shape, int width, int depth, int tabs) {
+    FlowGenerator g = new FlowGenerator();
+
+    for (int t = 0; t < tabs; t++) {
+      g.tab("network-"+t);
+      switch (shape) {
+      case "chain":
+        for (int w = 0; w < width; w++) {
+          g.chain(null, depth);
+        }
+        break;
+      case "fanout":
+        JsonObject source = g.component();
+        for (int w = 0; w < width; w++) {
+          g.chain(source, depth);
+        }
+        break;
+      case "diamond":
+        JsonObject split = g.component();
+        for (int d = 0; d < depth; d++) {
+          JsonObject grouping = g.grouping("round-robin");
+          g.wire(split, grouping);
+          JsonObject join = g.component();
+          for (int w = 0; w < width; w++) {
+            JsonObject branch = g.component();
+            g.wire(grouping, branch);
+            g.wire(branch, join);
+          }
+          split = join;
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown shape "+shape);
+      }
+    }
+
+    return g.flow;
+  }
+
+  /**
+   * @return the networks of the flow as listed by the vertigo cluster.
+   */
+  public static List<JsonObject> listedNetworks(JsonArray flow) {
+    List<JsonObject> res = new ArrayList<>();
+    for (JsonObject network : new NoderedToVertigo(flow).translate()) {
+      res.add(new JsonObject().putObject("network", new JsonObject().putObject("config", network)));
+    }
+    return res;
+  }
+
+  private void tab(String label) {
+    tab = "tab"+(ids++);
+    flow.addObject(new JsonObject().putString("type", "tab").putString("id", tab).putString("label", label));
+  }
+
+  private void chain(JsonObject from, int length) {
+    for (int i = 0; i < length; i++) {
+      JsonObject next = component();
+      if(from != null) {
+        wire(from, next);
+      }
+      from = next;
+    }
+  }
+
+  private JsonObject component() {
+    return node(MODULE, "{\"id\": "+ids+"}");
+  }
+
+  private JsonObject grouping(String type) {
+    return node(type, "{}");
+  }
+
+  private JsonObject node(String type, String config) {
+    int id = ids++;
+    JsonObject node = new JsonObject()
+    .putString("id", "n"+id)
+    .putString("type", type)
+    .putString("name", type+"-"+id)
+    .putString("config", config)
+    .putString("instances", "1")
+    .putString("z", tab)
+    .putNumber("x", 100)
+    .putNumber("y", 100)
+    .putObject("wires", new JsonObject());
+
+    flow.addObject(node);
+    return node;
+  }
+
+  private void wire(JsonObject from, JsonObject to) {
+    JsonObject wires = from.getObject("wires");
+    if(!wires.containsField("out")) {
+      wires.putArray("out", new JsonArray());
+    }
+    wires.getArray("out").addObject(new JsonObject().putString("node", to.getString("id")).putString("port", "in"));
+  }
+}
@@ -0,0 +1,112 @@
+package net.orolle.vertigo.verticleflow.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.orolle.vertigo.verticleflow.VertigoMavenLoader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Rendering of the palette HTML of all components of a scanned synthetic repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+  private static final String TEMPLATE = "node-red-component-template";
+
+  @Param({"200"})
+  public int modules;
+
+  private SyntheticRepository repository;
+  private Path indexDir;
+  private Vertx vertx;
+  private VertigoMavenLoader loader;
+  private boolean copiedTemplate = false;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    // the loader reads the template from the working directory
+    Path template = Paths.get(TEMPLATE);
+    if(!Files.exists(template)) {
+      try (InputStream in = RenderBenchmark.class.getClassLoader().getResourceAsStream(TEMPLATE)) {
+        Files.copy(in, template);
+      }
+      copiedTemplate = true;
+    }
+
+    repository = new SyntheticRepository(modules, 0, 0);
+    indexDir = Files.createTempDirectory("verticle-flow-index");
+    vertx = VertxFactory.newVertx();
+
+    final CountDownLatch scanned = new CountDownLatch(1);
+    vertx.runOnContext(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        loader = new VertigoMavenLoader(vertx, repository.root().toString(), indexDir.resolve("index.json").toString(), 4);
+        loader.reload().whenScanned(new Handler<Void>() {
+          @Override
+          public void handle(Void event) {
+            scanned.countDown();
+          }
+        });
+      }
+    });
+
+    if(!scanned.await(5, TimeUnit.MINUTES)) {
+      throw new IllegalStateException("Repository scan did not complete");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    vertx.stop();
+    repository.delete();
+    SyntheticRepository.delete(indexDir);
+    if(copiedTemplate) {
+      Files.delete(Paths.get(TEMPLATE));
+    }
+  }
+
+  /**
+   * Renders every component, as the first palette request after a scan.
+   */
+  @Benchmark
+  public JsonObject renderCold() {
+    return loader.reloadTemplate().getComponentHtml((List<String>) null);
+  }
+
+  /**
+   * Serves every component from the rendered HTML.
+   */
+  @Benchmark
+  public JsonObject renderCached() {
+    return loader.getComponentHtml((List<String>) null);
+  }
+}
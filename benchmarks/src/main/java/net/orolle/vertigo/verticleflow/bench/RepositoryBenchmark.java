@@ -0,0 +1,159 @@
+package net.orolle.vertigo.verticleflow.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.orolle.vertigo.verticleflow.ComponentIndex;
+import net.orolle.vertigo.verticleflow.RepositoryScanner;
+import net.orolle.vertigo.verticleflow.util.ModJson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Zip extraction and scanning of a synthetic repository, with a cold and a warm component index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+  @Param({"200"})
+  public int modules;
+
+  @Param({"50"})
+  public int filler;
+
+  @Param({"4096"})
+  public int fillerBytes;
+
+  @Param({"4"})
+  public int threads;
+
+  private SyntheticRepository repository;
+  private Path indexDir;
+  private Vertx vertx;
+  private RepositoryScanner scanner;
+  private ComponentIndex warm;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    repository = new SyntheticRepository(modules, filler, fillerBytes);
+    indexDir = Files.createTempDirectory("verticle-flow-index");
+    vertx = VertxFactory.newVertx();
+    scanner = new RepositoryScanner(vertx, threads);
+
+    warm = new ComponentIndex(vertx, indexDir.resolve("warm.json").toString());
+    scan(warm);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    scanner.shutdown();
+    vertx.stop();
+    repository.delete();
+    SyntheticRepository.delete(indexDir);
+  }
+
+  /**
+   * Reads the mod.json through the central directory of the zip.
+   */
+  @Benchmark
+  public JsonObject modJsonRead() throws IOException {
+    return ModJson.read(repository.firstZip());
+  }
+
+  /**
+   * Reads the mod.json by streaming the zip up to its entry.
+   */
+  @Benchmark
+  public JsonObject modJsonReadStreaming() throws IOException {
+    return ModJson.readStreaming(repository.firstZip());
+  }
+
+  /**
+   * Extracts every zip into an empty index on the calling thread.
+   */
+  @Benchmark
+  public ComponentIndex indexSerial() {
+    ComponentIndex index = new ComponentIndex(vertx, indexDir.resolve("serial.json").toString());
+    indexDir(repository.root().toFile(), index);
+    return index;
+  }
+
+  @Benchmark
+  public ComponentIndex scanCold() throws InterruptedException {
+    ComponentIndex index = new ComponentIndex(vertx, indexDir.resolve("cold.json").toString());
+    scan(index);
+    return index;
+  }
+
+  /**
+   * Scans with every zip already indexed, as after a restart.
+   */
+  @Benchmark
+  public ComponentIndex scanWarm() throws InterruptedException {
+    scan(warm);
+    return warm;
+  }
+
+  private void indexDir(File dir, ComponentIndex index) {
+    File[] files = dir.listFiles();
+    if(files == null) {
+      return;
+    }
+
+    for (File f : files) {
+      if(f.isDirectory()) {
+        indexDir(f, index);
+      } else if(f.getName().endsWith("-mod.zip")) {
+        RepositoryScanner.indexZip(repository.root(), index, f);
+      }
+    }
+  }
+
+  /**
+   * Runs a scan from a vert.x context, as the loader does, and waits for it.
+   */
+  private void scan(final ComponentIndex index) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+
+    vertx.runOnContext(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        scanner.scan(repository.root().toString(), index, new Handler<AsyncResult<RepositoryScanner.Scan>>() {
+          @Override
+          public void handle(AsyncResult<RepositoryScanner.Scan> event) {
+            done.countDown();
+          }
+        });
+      }
+    });
+
+    if(!done.await(5, TimeUnit.MINUTES)) {
+      throw new IllegalStateException("Repository scan did not complete");
+    }
+  }
+}
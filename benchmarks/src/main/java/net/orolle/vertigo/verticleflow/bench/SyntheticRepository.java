@@ -0,0 +1,105 @@
+package net.orolle.vertigo.verticleflow.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A temporary maven repository of vert.x module zips, laid out as <code>owner/name/version/name-version-mod.zip</code>.
+ * Every zip holds a vertigo mod.json after <code>filler</code> entries of <code>fillerBytes</code> each,
+ * so reading it by streaming has to skip them.
+ */
+public class SyntheticRepository {
+  private final Path root;
+
+  public SyntheticRepository(int modules, int filler, int fillerBytes) throws IOException {
+    this.root = Files.createTempDirectory("verticle-flow-repository");
+    Random random = new Random(modules);
+
+    for (int m = 0; m < modules; m++) {
+      String name = "component-"+m;
+      File dir = root.resolve("net/orolle/bench-"+(m % 8)).resolve(name).resolve("1.0").toFile();
+      dir.mkdirs();
+      zip(new File(dir, name+"-1.0-mod.zip"), m, filler, fillerBytes, random);
+    }
+  }
+
+  public Path root() {
+    return root;
+  }
+
+  /**
+   * @return the zip of the first module.
+   */
+  public File firstZip() {
+    return root.resolve("net/orolle/bench-0/component-0/1.0/component-0-1.0-mod.zip").toFile();
+  }
+
+  public void delete() throws IOException {
+    delete(root);
+  }
+
+  public static void delete(Path path) throws IOException {
+    if(!Files.exists(path)) {
+      return;
+    }
+
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static void zip(File file, int m, int filler, int fillerBytes, Random random) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+      byte[] data = new byte[fillerBytes];
+      for (int i = 0; i < filler; i++) {
+        random.nextBytes(data);
+        out.putNextEntry(new ZipEntry("lib/filler-"+i+".bin"));
+        out.write(data);
+        out.closeEntry();
+      }
+
+      out.putNextEntry(new ZipEntry("mod.json"));
+      out.write(modJson(m).encodePrettily().getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+  }
+
+  private static JsonObject modJson(int m) {
+    JsonArray inputs = new JsonArray(), outputs = new JsonArray();
+    for (int i = 0; i < 1 + m % 3; i++) {
+      inputs.addObject(new JsonObject().putString("name", "in"+i).putString("type", "json"));
+      outputs.addObject(new JsonObject().putString("name", "out"+i).putString("type", "json"));
+    }
+
+    return new JsonObject()
+    .putString("main", "Component"+m+".java")
+    .putObject("vertigo", new JsonObject()
+      .putArray("inputs", inputs)
+      .putArray("outputs", outputs)
+      .putObject("config", new JsonObject().putNumber("id", m).putString("mode", "<fast & \"safe\">"))
+      .putString("description", "Synthetic component "+m+" with <b>markup</b> to escape."));
+  }
+}
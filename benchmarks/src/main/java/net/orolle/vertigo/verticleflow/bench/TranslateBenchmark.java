@@ -0,0 +1,73 @@
+package net.orolle.vertigo.verticleflow.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.orolle.vertigo.verticleflow.translate.NoderedToVertigo;
+import net.orolle.vertigo.verticleflow.translate.VertigoToNodered;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Translation of generated flows in both directions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslateBenchmark {
+  @Param({"chain", "fanout", "diamond"})
+  public String shape;
+
+  @Param({"4", "32"})
+  public int width;
+
+  @Param({"4", "16"})
+  public int depth;
+
+  @Param({"1"})
+  public int tabs;
+
+  private JsonArray flow;
+  private String document;
+  private List<JsonObject> networks;
+
+  @Setup
+  public void setup() {
+    flow = FlowGenerator.flow(shape, width, depth, tabs);
+    document = flow.encode();
+    networks = FlowGenerator.listedNetworks(flow);
+  }
+
+  @Benchmark
+  public List<JsonObject> noderedToVertigo() {
+    return new NoderedToVertigo(flow).translate();
+  }
+
+  /**
+   * Parsing the document as tree first, as the flows.deploy handler did before it streamed raw documents.
+   */
+  @Benchmark
+  public List<JsonObject> noderedToVertigoParsed() {
+    return new NoderedToVertigo(new JsonArray(document)).translate();
+  }
+
+  @Benchmark
+  public JsonArray vertigoToNodered() {
+    return new VertigoToNodered(networks).translate();
+  }
+}
@@ -0,0 +1,168 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import net.orolle.vertigo.verticleflow.translate.VertigoToNodered;
+import net.orolle.vertigo.verticleflow.util.Background;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Locally cached view of the networks running in the vertigo cluster, already translated to Node-RED.
+ * The view is refreshed after every deployment of the {@link VertigoManager} and on a fixed interval,
+ * for networks changed by other clients. Reads are served from memory.
+ * Only networks whose configuration changed since the last refresh are translated again.
+ * Not thread-safe, use it from a single context.
+ */
+public class ActiveNetworks {
+  private static final long LIST_TIMEOUT_MS = 10000;
+
+  private final Vertx vertx;
+  private final VertigoManager vertigo;
+  private final Background workers;
+  private final List<Handler<JsonArray>> waiters = new ArrayList<>();
+
+  /** Translated nodes by encoded network configuration. */
+  private Map<String, List<JsonObject>> translated = new HashMap<>();
+  private JsonArray nodered = null;
+  private boolean refreshing = false, again = false;
+  private long timer = -1;
+
+  public ActiveNetworks(Vertx vertx, VertigoManager vertigo, Background workers) {
+    this.vertx = vertx;
+    this.vertigo = vertigo;
+    this.workers = workers;
+
+    vertigo.onChange(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        refresh();
+      }
+    });
+  }
+
+  /**
+   * Refreshes the view now and then every interval.
+   *
+   * @param intervalMs refresh interval or 0 to refresh on deployments only
+   */
+  public ActiveNetworks start(long intervalMs) {
+    refresh();
+
+    if(intervalMs > 0) {
+      timer = vertx.setPeriodic(intervalMs, new Handler<Long>() {
+        @Override
+        public void handle(Long event) {
+          refresh();
+        }
+      });
+    }
+
+    return this;
+  }
+
+  public void stop() {
+    if(timer != -1) {
+      vertx.cancelTimer(timer);
+    }
+  }
+
+  /**
+   * Calls the handler with the Node-RED flow of all active networks, empty if none is running.
+   * Only the very first read waits for the cluster.
+   */
+  public void get(Handler<JsonArray> h) {
+    if(nodered != null) {
+      h.handle(nodered);
+    } else {
+      waiters.add(h);
+    }
+  }
+
+  /**
+   * Queries the cluster, unless a query is running: then one more query follows it.
+   */
+  public void refresh() {
+    if(refreshing) {
+      again = true;
+      return;
+    }
+
+    refreshing = true;
+    vertigo.listNetworks(LIST_TIMEOUT_MS, new Handler<AsyncResult<List<JsonObject>>>() {
+      @Override
+      public void handle(AsyncResult<List<JsonObject>> listed) {
+        if(listed.failed()) {
+          // keep the last known view
+          System.out.println("Could not list active networks: "+listed.cause().getMessage());
+          done(translated);
+          return;
+        }
+
+        final List<JsonObject> networks = listed.result();
+        final Map<String, List<JsonObject>> known = translated;
+
+        workers.run(vertx, new Callable<Map<String, List<JsonObject>>>() {
+          @Override
+          public Map<String, List<JsonObject>> call() {
+            Map<String, List<JsonObject>> res = new LinkedHashMap<>();
+
+            for (JsonObject network : networks) {
+              JsonObject config = VertigoManager.networkConfig(network);
+              String key = config.encode();
+              List<JsonObject> nodes = known.get(key);
+              res.put(key, nodes != null? nodes : VertigoToNodered.toNodered(VertigoToNodered.toGraph(config)));
+            }
+
+            return res;
+          }
+        }, new Handler<AsyncResult<Map<String, List<JsonObject>>>>() {
+          @Override
+          public void handle(AsyncResult<Map<String, List<JsonObject>>> event) {
+            if(event.failed()) {
+              System.out.println("Could not translate active networks: "+event.cause().getMessage());
+            }
+            done(event.succeeded()? event.result() : translated);
+          }
+        });
+      }
+    });
+  }
+
+  private void done(Map<String, List<JsonObject>> networks) {
+    refreshing = false;
+    update(networks);
+
+    if(again) {
+      again = false;
+      refresh();
+    }
+  }
+
+  private void update(Map<String, List<JsonObject>> networks) {
+    JsonArray res = new JsonArray();
+    for (List<JsonObject> nodes : networks.values()) {
+      for (JsonObject node : nodes) {
+        res.addObject(node);
+      }
+    }
+
+    translated = networks;
+    nodered = res;
+
+    List<Handler<JsonArray>> ws = new ArrayList<>(waiters);
+    waiters.clear();
+    for (Handler<JsonArray> h : ws) {
+      h.handle(res);
+    }
+  }
+}
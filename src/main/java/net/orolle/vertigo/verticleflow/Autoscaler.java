@@ -0,0 +1,252 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.orolle.vertigo.verticleflow.metrics.MetricsCollector;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Adjusts the instance count of deployed components to the metrics published by the {@link MetricsCollector}.
+ * Only components fed exclusively through <code>round-robin</code>, <code>fair</code> or <code>hash</code> connections are scaled,
+ * as every instance of them receives a share of the messages.
+ * A component is scaled up if its queue or p99 latency stays above the upper threshold for <code>upBuckets</code> metric buckets
+ * and scaled down if both stay below the lower thresholds for <code>downBuckets</code> buckets; after a scaling it is
+ * left alone for <code>cooldownMs</code>. Up doubles the instances, down removes one, always within <code>min</code> and <code>max</code>.
+ * Every decision is published on {@link #DECISIONS}.
+ */
+public class Autoscaler {
+  public static final String DECISIONS = "web.out.autoscale";
+  private static final List<String> SCALABLE = Arrays.asList("round-robin", "fair", "hash");
+  private static final long LIST_TIMEOUT_MS = 10000;
+
+  private final Vertx vertx;
+  private final VertigoManager vertigo;
+  private final JsonObject config;
+  private final long upQueue, downQueue, upLatencyMicros, downLatencyMicros, cooldownMs;
+  private final int upBuckets, downBuckets;
+  private final Map<String, State> states = new HashMap<>();
+  private Handler<Message<JsonObject>> listener;
+  private boolean scaling = false;
+
+  /**
+   * @param config <code>{"min": 1, "max": 8, "upQueue": 100, "downQueue": 10, "upLatencyMs": 500, "downLatencyMs": 50,
+   * "upBuckets": 3, "downBuckets": 10, "cooldownMs": 30000, "components": {"network/component": {"min": 2, "max": 4}}}</code>,
+   * the optional components override the bounds per component
+   */
+  public Autoscaler(Vertx vertx, VertigoManager vertigo, JsonObject config) {
+    this.vertx = vertx;
+    this.vertigo = vertigo;
+    this.config = config;
+    this.upQueue = config.getLong("upQueue", 100);
+    this.downQueue = config.getLong("downQueue", 10);
+    this.upLatencyMicros = config.getLong("upLatencyMs", 500) * 1000;
+    this.downLatencyMicros = config.getLong("downLatencyMs", 50) * 1000;
+    this.upBuckets = Math.max(1, config.getInteger("upBuckets", 3));
+    this.downBuckets = Math.max(1, config.getInteger("downBuckets", 10));
+    this.cooldownMs = config.getLong("cooldownMs", 30000);
+  }
+
+  public Autoscaler start() {
+    listener = new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> msg) {
+        evaluate(msg.body());
+      }
+    };
+    vertx.eventBus().registerHandler(MetricsCollector.COMPONENTS, listener);
+    return this;
+  }
+
+  public void stop() {
+    if(listener != null) {
+      vertx.eventBus().unregisterHandler(MetricsCollector.COMPONENTS, listener);
+    }
+  }
+
+  /**
+   * Counts the consecutive buckets every component voted for scaling and scales the first one due.
+   * Components missing in the metrics lose their votes.
+   */
+  private void evaluate(JsonObject metrics) {
+    long now = System.currentTimeMillis();
+    JsonObject networks = metrics.getObject("networks", new JsonObject());
+
+    Iterator<String> it = states.keySet().iterator();
+    while (it.hasNext()) {
+      String[] key = it.next().split("/", 2);
+      if(networks.getObject(key[0], new JsonObject()).getObject(key[1]) == null) {
+        it.remove();
+      }
+    }
+
+    for (String network : networks.getFieldNames()) {
+      JsonObject components = networks.getObject(network);
+      for (String component : components.getFieldNames()) {
+        State s = state(network, component);
+        s.vote(components.getObject(component));
+
+        if(scaling || now < s.cooldownUntil) {
+          continue;
+        }
+        if(s.up >= upBuckets) {
+          scale(network, component, s, true);
+        } else if(s.down >= downBuckets) {
+          scale(network, component, s, false);
+        }
+      }
+    }
+  }
+
+  private State state(String network, String component) {
+    String key = network+"/"+component;
+    State s = states.get(key);
+    if(s == null) {
+      states.put(key, s = new State());
+    }
+    return s;
+  }
+
+  /**
+   * Scales one component at a time, as every scaling redeploys its network from the active configuration.
+   */
+  private void scale(final String network, final String component, final State s, final boolean up) {
+    scaling = true;
+    final String reason = s.reason;
+
+    vertigo.listNetworks(LIST_TIMEOUT_MS, new Handler<AsyncResult<List<JsonObject>>>() {
+      @Override
+      public void handle(AsyncResult<List<JsonObject>> listed) {
+        if(listed.failed()) {
+          System.out.println("Autoscaler could not list networks: "+listed.cause().getMessage());
+          done(s);
+          return;
+        }
+
+        JsonObject active = null;
+        for (JsonObject net : listed.result()) {
+          JsonObject config = VertigoManager.networkConfig(net);
+          if(network.equals(config.getString("name"))) {
+            active = config;
+          }
+        }
+
+        JsonObject comp = active == null? null : active.getObject("components", new JsonObject()).getObject(component);
+        if(comp == null || !isScalable(active, component)) {
+          done(s);
+          return;
+        }
+
+        JsonObject bounds = config.getObject("components", new JsonObject()).getObject(network+"/"+component, new JsonObject());
+        int min = Math.max(1, bounds.getInteger("min", config.getInteger("min", 1)));
+        int max = Math.max(min, bounds.getInteger("max", config.getInteger("max", 8)));
+        final int from = comp.getInteger("instances", 1);
+        final int to = Math.max(min, Math.min(max, up? from * 2 : from - 1));
+        if(to == from) {
+          done(s);
+          return;
+        }
+
+        JsonObject scaled = active.copy();
+        scaled.getObject("components").getObject(component).putNumber("instances", to);
+        vertigo.deploy(Arrays.asList(scaled), new Handler<AsyncResult<JsonObject>>() {
+          @Override
+          public void handle(AsyncResult<JsonObject> event) {
+            JsonObject decision = new JsonObject()
+            .putNumber("time", System.currentTimeMillis())
+            .putString("network", network)
+            .putString("component", component)
+            .putNumber("from", from)
+            .putNumber("to", to)
+            .putString("reason", reason);
+
+            if(event.succeeded()) {
+              decision.putString("status", "ok");
+            } else {
+              decision.putString("status", "error").putString("message", event.cause().getMessage());
+            }
+            System.out.println("AUTOSCALE: " + decision.encode());
+            vertx.eventBus().publish(DECISIONS, decision);
+            done(s);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Also components which could not be scaled, e.g. at their bounds, wait for the cooldown before the next attempt.
+   */
+  private void done(State s) {
+    s.cooldownUntil = System.currentTimeMillis() + cooldownMs;
+    s.up = 0;
+    s.down = 0;
+    scaling = false;
+  }
+
+  /**
+   * @return true if the component is the target of at least one connection and all of them share messages among the instances.
+   */
+  private static boolean isScalable(JsonObject network, String component) {
+    boolean fed = false;
+
+    for (Object o : network.getArray("connections", new JsonArray())) {
+      JsonObject con = (JsonObject) o;
+      if(component.equals(con.getObject("target", new JsonObject()).getString("component"))) {
+        if(!SCALABLE.contains(con.getObject("selector", new JsonObject()).getString("type", "round-robin"))) {
+          return false;
+        }
+        fed = true;
+      }
+    }
+
+    return fed;
+  }
+
+  private class State {
+    private int up = 0, down = 0;
+    private long cooldownUntil = 0;
+    private String reason = "";
+
+    /**
+     * The two thresholds leave a band in which neither counter grows, so a load around one threshold does not flap.
+     * A missing queue depth or latency does not vote, a bucket without either is skipped.
+     */
+    private void vote(JsonObject stats) {
+      Number queue = stats.getNumber("queue");
+      JsonObject latency = stats.getObject("latency");
+      Number p99 = latency == null || latency.getLong("count", 0) == 0? null : latency.getNumber("p99");
+      if(queue == null && p99 == null) {
+        return;
+      }
+
+      boolean queueUp = queue != null && queue.longValue() > upQueue;
+      boolean latencyUp = p99 != null && p99.longValue() > upLatencyMicros;
+      boolean queueDown = queue == null || queue.longValue() <= downQueue;
+      boolean latencyDown = p99 == null || p99.longValue() < downLatencyMicros;
+
+      if(queueUp || latencyUp) {
+        up++;
+        down = 0;
+        reason = queueUp? "queue "+queue+" > "+upQueue : "p99 latency "+p99.longValue()/1000+" ms > "+upLatencyMicros/1000+" ms";
+      } else if(queueDown && latencyDown) {
+        down++;
+        up = 0;
+        reason = (queue == null? "" : "queue "+queue+" <= "+downQueue)+(queue != null && p99 != null? " and " : "")
+            +(p99 == null? "" : "p99 latency "+p99.longValue()/1000+" ms < "+downLatencyMicros/1000+" ms");
+      } else {
+        up = 0;
+        down = 0;
+      }
+    }
+  }
+}
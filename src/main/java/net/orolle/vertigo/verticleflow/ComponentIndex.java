@@ -0,0 +1,225 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * On-disk index of scanned module zips.
+ * Every zip is keyed by its path and validated by size and modification time,
+ * so only changed zips have to be opened again after a restart.
+ * {@link #lookup} and {@link #put} may be called from scanner threads.
+ */
+public class ComponentIndex {
+  private static final int VERSION = 1;
+  private static final String SIZE = "size", MODIFIED = "modified", MODULEID = "moduleId", VERTIGO = "vertigo";
+
+  private final Vertx vertx;
+  private final String indexPath;
+  private final Map<String, JsonObject> entries = new ConcurrentHashMap<>();
+  private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+  public ComponentIndex(Vertx vertx, String indexPath) {
+    this.vertx = vertx;
+    this.indexPath = indexPath;
+  }
+
+  /**
+   * Loads the index file. A missing, outdated or corrupt index results in an empty index.
+   */
+  public ComponentIndex load() {
+    entries.clear();
+    dirty.set(false);
+
+    if(!new File(indexPath).isFile()) {
+      return this;
+    }
+
+    try {
+      JsonObject json = new JsonObject(vertx.fileSystem().readFileSync(indexPath).toString());
+
+      if(json.getInteger("version", 0) == VERSION) {
+        JsonObject zips = json.getObject("entries", new JsonObject());
+        for (String path : zips.getFieldNames()) {
+          entries.put(path, zips.getObject(path));
+        }
+      }
+    } catch (Exception e) {
+      System.out.println("Ignore unreadable component index '"+indexPath+"': "+e.getMessage());
+      entries.clear();
+    }
+
+    return this;
+  }
+
+  /**
+   * Writes the index asynchronously if it changed since the last load or save.
+   */
+  public void save() {
+    if(!dirty.getAndSet(false)) {
+      return;
+    }
+
+    JsonObject zips = new JsonObject();
+    for (Entry<String, JsonObject> e : entries.entrySet()) {
+      zips.putObject(e.getKey(), e.getValue());
+    }
+
+    JsonObject json = new JsonObject().putNumber("version", VERSION).putObject("entries", zips);
+
+    vertx.fileSystem().writeFile(indexPath, new Buffer(json.encode()), new Handler<AsyncResult<Void>>() {
+      @Override
+      public void handle(AsyncResult<Void> event) {
+        if(event.failed()) {
+          System.out.println("Could not write component index '"+indexPath+"': "+event.cause().getMessage());
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the cached entry of the zip or null if the zip is unknown or changed since it was indexed.
+   */
+  public JsonObject lookup(String path, long size, long modified) {
+    JsonObject entry = entries.get(path);
+
+    if(entry != null && entry.getLong(SIZE, -1) == size && entry.getLong(MODIFIED, -1) == modified) {
+      return entry;
+    }
+
+    return null;
+  }
+
+  /**
+   * Indexes a zip. Zips without vertigo metadata are indexed too, so they are not opened again.
+   *
+   * @param vertigo the "vertigo" object of the module's mod.json or null
+   */
+  public JsonObject put(String path, long size, long modified, String moduleId, JsonObject vertigo) {
+    JsonObject entry = new JsonObject()
+    .putNumber(SIZE, size)
+    .putNumber(MODIFIED, modified)
+    .putString(MODULEID, moduleId);
+
+    if(vertigo != null) {
+      entry.putObject(VERTIGO, vertigo);
+    }
+
+    entries.put(path, entry);
+    dirty.set(true);
+
+    return entry;
+  }
+
+  /**
+   * @return the entry of the zip regardless of its size and modification time, or null if it is not indexed.
+   */
+  public JsonObject get(String path) {
+    return entries.get(path);
+  }
+
+  /**
+   * @return paths of all indexed zips.
+   */
+  public List<String> paths() {
+    return new ArrayList<>(entries.keySet());
+  }
+
+  /**
+   * @return the dropped entry or null if the zip was not indexed.
+   */
+  public JsonObject remove(String path) {
+    JsonObject entry = entries.remove(path);
+    if(entry != null) {
+      dirty.set(true);
+    }
+
+    return entry;
+  }
+
+  /**
+   * Drops every entry below the directory.
+   *
+   * @return the dropped entries
+   */
+  public List<JsonObject> removeUnder(String dir) {
+    String prefix = dir.endsWith(File.separator)? dir : dir + File.separator;
+    List<JsonObject> removed = new ArrayList<>();
+
+    for (Iterator<Entry<String, JsonObject>> it = entries.entrySet().iterator(); it.hasNext();) {
+      Entry<String, JsonObject> e = it.next();
+      if(e.getKey().startsWith(prefix)) {
+        removed.add(e.getValue());
+        it.remove();
+        dirty.set(true);
+      }
+    }
+
+    return removed;
+  }
+
+  /**
+   * Drops every entry whose path is not in paths.
+   *
+   * @return the dropped entries
+   */
+  public List<JsonObject> retain(Set<String> paths) {
+    List<JsonObject> removed = new ArrayList<>();
+
+    for (Iterator<Entry<String, JsonObject>> it = entries.entrySet().iterator(); it.hasNext();) {
+      Entry<String, JsonObject> e = it.next();
+      if(!paths.contains(e.getKey())) {
+        removed.add(e.getValue());
+        it.remove();
+        dirty.set(true);
+      }
+    }
+
+    return removed;
+  }
+
+  /**
+   * @return all indexed components, i.e. entries with vertigo metadata.
+   */
+  public List<VertigoComponent> components() {
+    List<VertigoComponent> res = new ArrayList<>();
+
+    for (JsonObject entry : entries.values()) {
+      VertigoComponent c = toComponent(entry);
+      if(c != null) {
+        res.add(c);
+      }
+    }
+
+    return res;
+  }
+
+  /**
+   * @return the component of the entry or null if the indexed zip holds no vertigo module.
+   */
+  public static VertigoComponent toComponent(JsonObject entry) {
+    JsonObject vertigo = entry.getObject(VERTIGO);
+
+    if(vertigo == null) {
+      return null;
+    }
+
+    return VertigoComponent.createComponent(entry.getString(MODULEID), new JsonObject().putObject(VERTIGO, vertigo));
+  }
+
+  public static String moduleId(JsonObject entry) {
+    return entry.getString(MODULEID);
+  }
+}
@@ -0,0 +1,388 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.vertx.java.core.json.DecodeException;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Append-only journal of flow revisions in a memory-mapped file.
+ * Every revision is stored as delta to the previous one, keyed by node id, and every
+ * {@link #snapshotEvery} revisions as full snapshot, so restoring applies a bounded number of deltas.
+ * A record is <code>magic, payload length, type, revision, time, crc32, payload</code>. Every append is forced to the disk
+ * before it returns, so a revision survives a crash of the process or of the system once it is appended; a torn record at the end
+ * of the journal (e.g. after a power loss during an append) ends the journal and is overwritten by the next revision.
+ * Thread-safe, but the file operations block: call it off the event loop.
+ */
+public class FlowHistory {
+  private static final int MAGIC = 0x464C4F57;
+  private static final int HEADER = 4+4+1+4+8+4;
+  private static final byte SNAPSHOT = 0, DELTA = 1;
+  private static final int MIN_CAPACITY = 1 << 20;
+
+  private final String path;
+  private final int snapshotEvery;
+  private final List<Revision> revisions = new ArrayList<>();
+  private FileChannel channel;
+  private MappedByteBuffer map;
+  private int end = 0;
+
+  /** The flow of the latest revision by node id, in flow order. */
+  private LinkedHashMap<String, JsonObject> latest = new LinkedHashMap<>();
+
+  public FlowHistory(String path, int snapshotEvery) {
+    this.path = path;
+    this.snapshotEvery = Math.max(1, snapshotEvery);
+  }
+
+  /**
+   * Maps the journal and indexes its revisions.
+   */
+  @SuppressWarnings("resource")
+  public synchronized FlowHistory open() throws IOException {
+    channel = new RandomAccessFile(path, "rw").getChannel();
+    map(Math.max(MIN_CAPACITY, channel.size()));
+
+    while (end + HEADER <= map.capacity() && map.getInt(end) == MAGIC) {
+      int length = map.getInt(end+4);
+      if(length < 0 || end + HEADER + length > map.capacity()) {
+        break;
+      }
+
+      byte[] payload = new byte[length];
+      map.position(end + HEADER);
+      map.get(payload);
+      if(crc(payload) != map.getInt(end+21)) {
+        break;
+      }
+
+      try {
+        Revision rev = new Revision(map.getInt(end+9), map.getLong(end+13), map.get(end+8), end, length);
+        latest = apply(rev.type == SNAPSHOT? new LinkedHashMap<String, JsonObject>() : latest, decode(payload), rev.type);
+        revisions.add(rev);
+      } catch (DecodeException e) {
+        break;
+      }
+      end += HEADER + length;
+    }
+
+    return this;
+  }
+
+  public synchronized void close() throws IOException {
+    if(channel != null) {
+      map.force();
+      channel.close();
+    }
+  }
+
+  /**
+   * Appends the flow as new revision unless it equals the latest one.
+   *
+   * @return the revision number of the flow
+   */
+  public synchronized int append(JsonArray flow) throws IOException {
+    flow = flow.copy();
+    LinkedHashMap<String, JsonObject> next = byId(flow);
+    if(next == null) {
+      throw new IllegalArgumentException("Every flow node needs an unique id");
+    }
+
+    JsonObject delta = delta(latest, next);
+    if(!revisions.isEmpty() && delta.size() == 0) {
+      return last().revision;
+    }
+
+    int revision = revisions.isEmpty()? 1 : last().revision + 1;
+    boolean snapshot = (revision - 1) % snapshotEvery == 0;
+    byte[] payload = snapshot? flow.encode().getBytes(StandardCharsets.UTF_8) : delta.encode().getBytes(StandardCharsets.UTF_8);
+
+    if(end + HEADER + payload.length > map.capacity()) {
+      map(Math.max(2L * map.capacity(), end + HEADER + payload.length));
+    }
+
+    Revision rev = new Revision(revision, System.currentTimeMillis(), snapshot? SNAPSHOT : DELTA, end, payload.length);
+    map.position(end + HEADER);
+    map.put(payload);
+    map.putInt(end+4, payload.length);
+    map.put(end+8, rev.type);
+    map.putInt(end+9, rev.revision);
+    map.putLong(end+13, rev.time);
+    map.putInt(end+21, crc(payload));
+    // the magic is written last, so a torn record is never taken as valid
+    map.putInt(end, MAGIC);
+    map.force();
+
+    end += HEADER + payload.length;
+    revisions.add(rev);
+    latest = next;
+
+    return revision;
+  }
+
+  /**
+   * @return the revisions, newest first.
+   */
+  public synchronized JsonArray list(int offset, int limit) {
+    JsonArray res = new JsonArray();
+
+    for (int i = revisions.size() - 1 - offset; i >= 0 && res.size() < limit; i--) {
+      Revision rev = revisions.get(i);
+      res.addObject(new JsonObject()
+      .putNumber("revision", rev.revision)
+      .putNumber("time", rev.time)
+      .putString("type", rev.type == SNAPSHOT? "snapshot" : "delta")
+      .putNumber("size", rev.length));
+    }
+
+    return res;
+  }
+
+  /**
+   * @return the flow of the revision or null if there is no such revision.
+   */
+  public synchronized JsonArray restore(int revision) {
+    LinkedHashMap<String, JsonObject> flow = flow(revision);
+    return flow == null? null : toArray(flow);
+  }
+
+  /**
+   * Compares the nodes of two revisions by id.
+   *
+   * @return <code>{"added": [node], "removed": [node], "changed": [{"before": node, "after": node}]}</code> or null if a revision does not exist.
+   */
+  public synchronized JsonObject diff(int from, int to) {
+    LinkedHashMap<String, JsonObject> a = flow(from), b = flow(to);
+    if(a == null || b == null) {
+      return null;
+    }
+
+    JsonArray added = new JsonArray(), removed = new JsonArray(), changed = new JsonArray();
+    for (Map.Entry<String, JsonObject> e : a.entrySet()) {
+      JsonObject after = b.get(e.getKey());
+      if(after == null) {
+        removed.addObject(e.getValue());
+      } else if(!after.equals(e.getValue())) {
+        changed.addObject(new JsonObject().putObject("before", e.getValue()).putObject("after", after));
+      }
+    }
+    for (Map.Entry<String, JsonObject> e : b.entrySet()) {
+      if(!a.containsKey(e.getKey())) {
+        added.addObject(e.getValue());
+      }
+    }
+
+    return new JsonObject().putNumber("from", from).putNumber("to", to)
+        .putArray("added", added).putArray("removed", removed).putArray("changed", changed);
+  }
+
+  public synchronized int latestRevision() {
+    return revisions.isEmpty()? 0 : last().revision;
+  }
+
+  private Revision last() {
+    return revisions.get(revisions.size() - 1);
+  }
+
+  /**
+   * Rebuilds a revision from the latest snapshot before it and the deltas since.
+   */
+  private LinkedHashMap<String, JsonObject> flow(int revision) {
+    int idx = find(revision);
+    if(idx < 0) {
+      return null;
+    }
+    if(idx == revisions.size() - 1) {
+      return latest;
+    }
+
+    int start = idx;
+    while (revisions.get(start).type != SNAPSHOT) {
+      start--;
+    }
+
+    LinkedHashMap<String, JsonObject> res = new LinkedHashMap<>();
+    for (int i = start; i <= idx; i++) {
+      Revision rev = revisions.get(i);
+      res = apply(res, decode(read(rev)), rev.type);
+    }
+
+    return res;
+  }
+
+  /**
+   * Revisions are appended in ascending order, so the index is searched binary.
+   */
+  private int find(int revision) {
+    int lo = 0, hi = revisions.size() - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int r = revisions.get(mid).revision;
+      if(r < revision) {
+        lo = mid + 1;
+      } else if(r > revision) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+
+    return -1;
+  }
+
+  private byte[] read(Revision rev) {
+    byte[] payload = new byte[rev.length];
+    map.position(rev.offset + HEADER);
+    map.get(payload);
+    return payload;
+  }
+
+  /**
+   * Maps the journal with the capacity. Java cannot unmap a buffer explicitly, a replaced mapping is released when it is
+   * garbage collected; the capacity doubles on growth, so only a few of them are ever created.
+   */
+  private void map(long capacity) throws IOException {
+    if(capacity > Integer.MAX_VALUE) {
+      throw new IOException("Flow history '"+path+"' is full");
+    }
+    if(map != null) {
+      map.force();
+    }
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  private static Object decode(byte[] payload) {
+    String json = new String(payload, StandardCharsets.UTF_8);
+    return json.startsWith("[")? new JsonArray(json) : new JsonObject(json);
+  }
+
+  private static int crc(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * The delta lists the new or changed nodes ("put"), the ids of removed nodes ("del") and,
+   * if applying those does not yield the order of the new flow, all ids in their new order ("order").
+   */
+  private static JsonObject delta(LinkedHashMap<String, JsonObject> before, LinkedHashMap<String, JsonObject> after) {
+    JsonArray put = new JsonArray(), del = new JsonArray();
+
+    for (String id : before.keySet()) {
+      if(!after.containsKey(id)) {
+        del.addString(id);
+      }
+    }
+    for (Map.Entry<String, JsonObject> e : after.entrySet()) {
+      if(!e.getValue().equals(before.get(e.getKey()))) {
+        put.addObject(e.getValue());
+      }
+    }
+
+    JsonObject res = new JsonObject();
+    if(put.size() > 0) {
+      res.putArray("put", put);
+    }
+    if(del.size() > 0) {
+      res.putArray("del", del);
+    }
+
+    List<String> applied = new ArrayList<>(apply(before, res, DELTA).keySet());
+    if(!applied.equals(new ArrayList<>(after.keySet()))) {
+      JsonArray order = new JsonArray();
+      for (String id : after.keySet()) {
+        order.addString(id);
+      }
+      res.putArray("order", order);
+    }
+
+    return res;
+  }
+
+  private static LinkedHashMap<String, JsonObject> apply(LinkedHashMap<String, JsonObject> base, Object payload, byte type) {
+    if(type == SNAPSHOT) {
+      return byId((JsonArray) payload);
+    }
+
+    JsonObject delta = (JsonObject) payload;
+    LinkedHashMap<String, JsonObject> res = new LinkedHashMap<>(base);
+
+    for (Object id : delta.getArray("del", new JsonArray())) {
+      res.remove(id);
+    }
+    for (Object o : delta.getArray("put", new JsonArray())) {
+      JsonObject node = (JsonObject) o;
+      res.put(node.getString("id"), node);
+    }
+
+    JsonArray order = delta.getArray("order");
+    if(order != null) {
+      LinkedHashMap<String, JsonObject> ordered = new LinkedHashMap<>();
+      for (Object id : order) {
+        ordered.put((String) id, res.get(id));
+      }
+      res = ordered;
+    }
+
+    return res;
+  }
+
+  /**
+   * @return the nodes by id or null if a node has no or a duplicate id.
+   */
+  private static LinkedHashMap<String, JsonObject> byId(JsonArray flow) {
+    LinkedHashMap<String, JsonObject> res = new LinkedHashMap<>();
+    Set<String> seen = new HashSet<>();
+
+    for (Object o : flow) {
+      if(!(o instanceof JsonObject) || ((JsonObject) o).getString("id") == null) {
+        return null;
+      }
+
+      JsonObject node = (JsonObject) o;
+      if(!seen.add(node.getString("id"))) {
+        return null;
+      }
+      res.put(node.getString("id"), node);
+    }
+
+    return res;
+  }
+
+  private static JsonArray toArray(LinkedHashMap<String, JsonObject> flow) {
+    JsonArray res = new JsonArray();
+    for (JsonObject node : flow.values()) {
+      res.addObject(node.copy());
+    }
+    return res;
+  }
+
+  private static class Revision {
+    private final int revision;
+    private final long time;
+    private final byte type;
+    private final int offset, length;
+
+    private Revision(int revision, long time, byte type, int offset, int length) {
+      this.revision = revision;
+      this.time = time;
+      this.type = type;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
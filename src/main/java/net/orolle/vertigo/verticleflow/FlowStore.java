@@ -0,0 +1,204 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import net.orolle.vertigo.verticleflow.util.Background;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.DecodeException;
+import org.vertx.java.core.json.JsonArray;
+
+/**
+ * Persists the Node-RED flow of the UI.
+ * The latest flow is cached in memory, so loading it never touches the disk.
+ * Saving encodes the flow minified and writes it on the worker pool to a temporary file, which then atomically replaces the store.
+ * While a write is running, further saves only replace the pending flow, so bursts of saves cause at most one more write.
+ * {@link #close()} writes the latest flow right away if it is not stored yet.
+ * Not thread-safe, use it from a single context.
+ */
+public class FlowStore {
+  private final Vertx vertx;
+  private final Background workers;
+  private final Path path, temp;
+  private final List<Handler<JsonArray>> loadWaiters = new ArrayList<>();
+
+  private boolean loaded = false;
+  private JsonArray flow = new JsonArray();
+  private Buffer raw = null;
+
+  private Object writing = null; // flow being written on the worker pool
+  private long writingVersion = 0;
+  private Object pending = null;
+  private long saved = 0, stored = 0; // versions of the last save and of the flow on disk
+
+  public FlowStore(Vertx vertx, Background workers, String path) {
+    this.vertx = vertx;
+    this.workers = workers;
+    this.path = Paths.get(path).toAbsolutePath();
+    this.temp = this.path.resolveSibling(this.path.getFileName()+".tmp");
+  }
+
+  /**
+   * Reads the stored flow into the cache. A missing or broken store counts as empty flow.
+   */
+  public FlowStore load() {
+    vertx.fileSystem().readFile(path.toString(), new Handler<AsyncResult<Buffer>>() {
+      @Override
+      public void handle(AsyncResult<Buffer> event) {
+        if(loaded) {
+          return; // saved meanwhile
+        }
+
+        if(event.succeeded()) {
+          raw = event.result();
+          flow = null;
+        } else if(Files.exists(path)) {
+          System.out.println("Could not read stored flow '"+path+"': "+event.cause().getMessage());
+        }
+
+        loaded();
+      }
+    });
+
+    return this;
+  }
+
+  /**
+   * Calls the handler with the stored flow as soon as it is loaded.
+   */
+  public void get(Handler<JsonArray> h) {
+    if(loaded) {
+      h.handle(flow());
+    } else {
+      loadWaiters.add(h);
+    }
+  }
+
+  public void save(JsonArray flow) {
+    this.flow = flow;
+    this.raw = null;
+    loaded();
+    write(flow);
+  }
+
+  /**
+   * Saves a raw flow document as it is, it is only parsed if it is loaded again.
+   */
+  public void save(Buffer raw) {
+    this.flow = null;
+    this.raw = raw;
+    loaded();
+    write(raw);
+  }
+
+  private JsonArray flow() {
+    if(flow == null) {
+      try {
+        flow = new JsonArray(raw.toString());
+      } catch (DecodeException e) {
+        System.out.println("Stored flow is no JSON array: "+e.getMessage());
+        flow = new JsonArray();
+      }
+      raw = null;
+    }
+
+    return flow;
+  }
+
+  private void loaded() {
+    loaded = true;
+
+    List<Handler<JsonArray>> waiters = new ArrayList<>(loadWaiters);
+    loadWaiters.clear();
+    for (Handler<JsonArray> h : waiters) {
+      h.handle(flow());
+    }
+  }
+
+  /**
+   * Writes the latest flow synchronously, unless it is stored already: the pending one or the one being written,
+   * which would be lost if the worker pool is shut down meanwhile. Call it when the verticle stops, before the pool is shut down.
+   */
+  public void close() {
+    Object data = pending != null? pending : writing;
+    long version = pending != null? saved : writingVersion;
+    if(data == null) {
+      return;
+    }
+
+    try {
+      store(data, version);
+    } catch (IOException e) {
+      System.out.println("Could not store flow '"+path+"': "+e.getMessage());
+    }
+    pending = null;
+  }
+
+  private void write(Object data) {
+    write(data, ++saved);
+  }
+
+  /**
+   * @param version increasing number of the save, the pending flow is always the latest one
+   */
+  private void write(final Object data, final long version) {
+    if(writing != null) {
+      pending = data;
+      return;
+    }
+
+    writing = data;
+    writingVersion = version;
+    workers.run(vertx, new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        store(data, version);
+        return null;
+      }
+    }, new Handler<AsyncResult<Void>>() {
+      @Override
+      public void handle(AsyncResult<Void> event) {
+        writing = null;
+        if(event.failed()) {
+          System.out.println("Could not store flow '"+path+"': "+event.cause().getMessage());
+        }
+
+        if(pending != null) {
+          Object next = pending;
+          pending = null;
+          write(next, saved);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replaces the store by the flow unless a later version was stored already, e.g. by {@link #close()}.
+   */
+  private synchronized void store(Object data, long version) throws IOException {
+    if(version <= stored) {
+      return;
+    }
+
+    byte[] bytes = data instanceof Buffer? ((Buffer) data).getBytes() : new Buffer(((JsonArray) data).encode()).getBytes();
+    Files.write(temp, bytes);
+
+    try {
+      Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+    stored = version;
+  }
+}
@@ -1,10 +1,18 @@
 package net.orolle.vertigo.verticleflow;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import net.orolle.vertigo.verticleflow.metrics.HandlerMetrics;
+import net.orolle.vertigo.verticleflow.metrics.MetricsCollector;
+import net.orolle.vertigo.verticleflow.model.FlowGraph;
+import net.orolle.vertigo.verticleflow.translate.CapacityAnalyzer;
+import net.orolle.vertigo.verticleflow.translate.FusionPass;
 import net.orolle.vertigo.verticleflow.translate.NoderedToVertigo;
-import net.orolle.vertigo.verticleflow.translate.VertigoToNodered;
+import net.orolle.vertigo.verticleflow.util.Background;
 import net.orolle.vertigo.verticleflow.util.Tool;
 
 import org.vertx.java.busmods.BusModBase;
@@ -13,6 +21,7 @@ import org.vertx.java.core.Future;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.impl.DefaultFutureResult;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
@@ -27,6 +36,14 @@ import org.vertx.java.core.json.JsonObject;
 public class Main extends BusModBase {
   private VertigoMavenLoader loader;
   private VertigoManager vertigo;
+  private Background workers;
+  private FlowStore flows;
+  private FlowHistory history;
+  private Background.Serial historyQueue;
+  private ActiveNetworks networks;
+  private MetricsCollector metrics;
+  private HandlerMetrics handlerMetrics;
+  private Autoscaler autoscaler;
   
   @Override
   public void start(final Future<Void> startedResult) {
@@ -38,9 +55,42 @@ public class Main extends BusModBase {
       deployVertigo(vertigoCluster);
     }
     
-    loader = new VertigoMavenLoader(getVertx(), this.config.getString("maven", System.getProperty("user.home")+File.separator+".m2"))
+    loader = new VertigoMavenLoader(getVertx(), this.config.getString("maven", System.getProperty("user.home")+File.separator+".m2"),
+        this.config.getString("index", "component-index.json"),
+        this.config.getInteger("scanThreads", Math.min(4, Runtime.getRuntime().availableProcessors())))
     .reload();
-    vertigo = new VertigoManager(getVertx(), getContainer(), vertigoCluster);
+    
+    Object watch = this.config.getValue("watch");
+    if (watch instanceof JsonArray) {
+      List<String> dirs = new ArrayList<>();
+      for (Object dir : (JsonArray) watch) {
+        dirs.add(dir.toString());
+      }
+      loader.watch(dirs);
+    } else if (Boolean.TRUE.equals(watch)) {
+      loader.watch(new ArrayList<String>());
+    }
+    
+    handlerMetrics = new HandlerMetrics(getVertx(), logger, this.config.getObject("handlerMetrics", new JsonObject())).start();
+    workers = new Background(this.config.getInteger("workerThreads", Runtime.getRuntime().availableProcessors()));
+    historyQueue = workers.serial();
+    flows = new FlowStore(getVertx(), workers, this.config.getString("flows", "stored-networks.json")).load();
+    try {
+      history = new FlowHistory(this.config.getString("history", "flow-history.log"), this.config.getInteger("historySnapshotEvery", 50)).open();
+    } catch (IOException e) {
+      System.out.println("Flow history disabled: "+e.getMessage());
+    }
+    vertigo = new VertigoManager(getVertx(), getContainer(), vertigoCluster, this.config.getInteger("installParallelism", 4));
+    JsonObject metricsConfig = this.config.getObject("metrics");
+    if (metricsConfig != null) {
+      metrics = new MetricsCollector(getVertx(), metricsConfig).start();
+      
+      JsonObject autoscale = this.config.getObject("autoscale");
+      if (autoscale != null) {
+        autoscaler = vertigo.autoscale(autoscale);
+      }
+    }
+    networks = new ActiveNetworks(getVertx(), vertigo, workers).start(this.config.getLong("networkRefreshMs", 5000));
     
     final JsonObject webConfig = new JsonObject()
     .putString("host", this.config.getString("host", "127.0.0.1"))
@@ -66,14 +116,32 @@ public class Main extends BusModBase {
      * UI Interaction
      */
     
-    vertx.eventBus().registerHandler("web.in.component.names", new Handler<Message<JsonObject>>() {
+    instrumented("web.in.component.names", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> msg) {
+        // Partial requests get the components found so far and the scan progress as marker
+        if(msg.body() != null && msg.body().getBoolean("partial", false)) {
+          msg.reply(loader.scanProgress().putArray("names", Tool.listToJson(loader.getComponentNames())));
+          return;
+        }
+        
+        loader.whenScanned(new Handler<Void>() {
+          @Override
+          public void handle(Void event) {
+            msg.reply(Tool.listToJson(loader.getComponentNames()));
+          }
+        });
+      }
+    });
+    
+    instrumented("web.in.component.status", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> msg) {
-        msg.reply(Tool.listToJson(loader.getComponentNames()));
+        msg.reply(loader.scanProgress());
       }
     });
     
-    vertx.eventBus().registerHandler("web.in.component.html", new Handler<Message<JsonObject>>() {
+    instrumented("web.in.component.html", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(Message<JsonObject> msg) {
         String html = loader.getComponentHtml(msg.body().getString("moduleId", null));
@@ -83,38 +151,344 @@ public class Main extends BusModBase {
       }
     });
     
-    vertx.eventBus().registerHandler("web.in.flows.load", new Handler<Message<JsonObject>>() {
+    instrumented("web.in.component.htmls", new Handler<Message<JsonObject>>() {
       @Override
       public void handle(final Message<JsonObject> msg) {
-        vertigo.activeNetworks(new Handler<List<JsonObject>>() {
+        JsonArray ids = msg.body() == null? null : msg.body().getArray("moduleIds");
+        final List<String> names = ids == null? null : new ArrayList<String>();
+        
+        if(ids != null) {
+          for (Object id : ids) {
+            names.add(id.toString());
+          }
+        }
+        
+        loader.whenScanned(new Handler<Void>() {
           @Override
-          public void handle(List<JsonObject> networks) {
-            JsonArray json = networks.size() > 0? new VertigoToNodered(networks).translate() :
-              ! new File("stored-networks.json").exists()? new JsonArray() :
-                  new JsonArray(vertx.fileSystem().readFileSync("stored-networks.json").toString());
-              
-            msg.reply(json);
+          public void handle(Void event) {
+            msg.reply(loader.getComponentHtml(names));
           }
         });
       }
     });
     
-    vertx.eventBus().registerHandler("web.in.flows.deploy", new Handler<Message<JsonArray>>() {
+    instrumented("web.in.flows.load", new Handler<Message<JsonObject>>() {
       @Override
-      public void handle(final Message<JsonArray> msg) {
-        String flows = msg.body().encodePrettily();
-        vertx.fileSystem().writeFileSync("stored-networks.json", new Buffer(flows));
+      public void handle(final Message<JsonObject> msg) {
+        networks.get(new Handler<JsonArray>() {
+          @Override
+          public void handle(JsonArray active) {
+            if (active.size() > 0) {
+              msg.reply(active);
+              return;
+            }
+            
+            flows.get(new Handler<JsonArray>() {
+              @Override
+              public void handle(JsonArray stored) {
+                msg.reply(stored);
+              }
+            });
+          }
+        });
+      }
+    });
+    
+    instrumented("web.in.flows.deploy", new Handler<Message<Object>>() {
+      @Override
+      public void handle(final Message<Object> msg) {
+        deployFlow(msg.body(), new Handler<JsonObject>() {
+          @Override
+          public void handle(JsonObject result) {
+            msg.reply(result);
+          }
+        });
+      }
+    });
+    
+    instrumented("web.in.flows.analyze", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> msg) {
+        analyzeFlow(msg.body() == null? new JsonObject() : msg.body(), new Handler<JsonObject>() {
+          @Override
+          public void handle(JsonObject result) {
+            msg.reply(result);
+          }
+        });
+      }
+    });
+    
+    instrumented("web.in.flows.history.list", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> msg) {
+        final JsonObject req = msg.body() == null? new JsonObject() : msg.body();
         
-        List<JsonObject> nets = new NoderedToVertigo(new JsonArray(flows)).translate();
+        withHistory(msg, new Callable<JsonObject>() {
+          @Override
+          public JsonObject call() {
+            return new JsonObject().putNumber("latest", history.latestRevision())
+                .putArray("revisions", history.list(req.getInteger("offset", 0), req.getInteger("limit", 50)));
+          }
+        });
+      }
+    });
+    
+    instrumented("web.in.flows.history.diff", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> msg) {
+        final JsonObject req = msg.body() == null? new JsonObject() : msg.body();
+        
+        withHistory(msg, new Callable<JsonObject>() {
+          @Override
+          public JsonObject call() {
+            int to = req.getInteger("to", history.latestRevision());
+            JsonObject diff = history.diff(req.getInteger("from", to - 1), to);
+            if (diff == null) {
+              throw new IllegalArgumentException("Unknown revision");
+            }
+            return diff;
+          }
+        });
+      }
+    });
+    
+    instrumented("web.in.flows.history.restore", new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(final Message<JsonObject> msg) {
+        final JsonObject req = msg.body() == null? new JsonObject() : msg.body();
         
-        for(JsonObject network : nets) {
-          vertigo.deploy(network);
+        withHistory(msg, new Callable<JsonObject>() {
+          @Override
+          public JsonObject call() throws IOException {
+            JsonArray flow = history.restore(req.getInteger("revision", 0));
+            if (flow == null) {
+              throw new IllegalArgumentException("Unknown revision "+req.getValue("revision"));
+            }
+            return new JsonObject().putArray("flow", flow).putNumber("revision", history.append(flow));
+          }
+        }, new Handler<JsonObject>() {
+          @Override
+          public void handle(final JsonObject restored) {
+            final JsonArray flow = restored.getArray("flow");
+            
+            if (!req.getBoolean("deploy", false)) {
+              flows.save(flow);
+              msg.reply(restored.putString("status", "ok"));
+              return;
+            }
+            
+            deployFlow(flow, new Handler<JsonObject>() {
+              @Override
+              public void handle(JsonObject result) {
+                msg.reply(result.putArray("flow", flow).putNumber("revision", restored.getInteger("revision")));
+              }
+            });
+          }
+        });
+      }
+    });
+  }
+  
+  /**
+   * Stores the flow, records it in the history and deploys it.
+   * The UI sends the raw document which is streamed, other clients may send the parsed flow as well.
+   * If a <code>fusionGroup</code> is configured, fusible chains are co-located, see {@link FusionPass}.
+   */
+  private void deployFlow(Object body, final Handler<JsonObject> reply) {
+    Handler<AsyncResult<NoderedToVertigo>> deploy = new Handler<AsyncResult<NoderedToVertigo>>() {
+      @Override
+      public void handle(AsyncResult<NoderedToVertigo> translated) {
+        if (translated.failed()) {
+          translated.cause().printStackTrace();
+          reply.handle(new JsonObject().putString("status", "error").putString("message", String.valueOf(translated.cause().getMessage())));
+          return;
         }
         
-        msg.reply();
+        List<JsonObject> nets = translated.result().translate();
+        if (metrics != null) {
+          metrics.instrument(nets);
+        }
+        
+        final JsonObject fused = new JsonObject();
+        String fusionGroup = config.getString("fusionGroup");
+        if (fusionGroup != null) {
+          FusionPass fusion = new FusionPass(loader.getFusibleModules(), fusionGroup);
+          List<FlowGraph> graphs = translated.result().graphs();
+          for (int i = 0; i < nets.size(); i++) {
+            JsonObject net = nets.get(i);
+            JsonArray chains = fusion.fuse(graphs.get(i), net);
+            if (chains.size() > 0) {
+              fused.putArray(net.getString("name"), chains);
+            }
+          }
+        }
+        
+        vertigo.deploy(nets, new Handler<AsyncResult<JsonObject>>() {
+          @Override
+          public void handle(AsyncResult<JsonObject> event) {
+            reply.handle(event.succeeded()? event.result().putString("status", "ok").putObject("fused", fused) :
+              new JsonObject().putString("status", "error").putString("message", event.cause().getMessage()));
+          }
+        });
+      }
+    };
+    
+    if (body instanceof JsonArray) {
+      flows.save((JsonArray) body);
+      record((JsonArray) body, null);
+      NoderedToVertigo.translate(vertx, workers, (JsonArray) body, deploy);
+      
+    } else if (body instanceof Buffer || body instanceof String) {
+      Buffer raw = body instanceof Buffer? (Buffer) body : new Buffer((String) body);
+      flows.save(raw);
+      record(null, raw);
+      NoderedToVertigo.translate(vertx, workers, raw, deploy);
+      
+    } else {
+      reply.handle(new JsonObject().putString("status", "error").putString("message", "Flow is no JSON array"));
+    }
+  }
+  
+  /**
+   * Translates the flow and analyzes the capacity of its networks in the background, see {@link CapacityAnalyzer}.
+   * Request: <code>{"flow": [...], "rate": messages per second of every source, "utilization": 0.8}</code>.
+   * Measured latencies of running components take precedence over the declared cost profiles.
+   */
+  private void analyzeFlow(final JsonObject req, final Handler<JsonObject> reply) {
+    JsonArray flow = req.getArray("flow");
+    if (flow == null) {
+      reply.handle(new JsonObject().putString("status", "error").putString("message", "Flow is no JSON array"));
+      return;
+    }
+    
+    final CapacityAnalyzer analyzer = new CapacityAnalyzer(loader.getCostProfiles(),
+        metrics == null? new JsonObject() : metrics.latest().getObject("components", new JsonObject()),
+        req.getNumber("utilization") == null? 0.8 : req.getNumber("utilization").doubleValue());
+    final double rate = req.getNumber("rate", 0).doubleValue();
+    
+    final Handler<AsyncResult<JsonObject>> done = new Handler<AsyncResult<JsonObject>>() {
+      @Override
+      public void handle(AsyncResult<JsonObject> event) {
+        reply.handle(event.succeeded()? event.result().putString("status", "ok") :
+          new JsonObject().putString("status", "error").putString("message", String.valueOf(event.cause().getMessage())));
+      }
+    };
+    
+    NoderedToVertigo.translate(vertx, workers, flow, new Handler<AsyncResult<NoderedToVertigo>>() {
+      @Override
+      public void handle(final AsyncResult<NoderedToVertigo> translated) {
+        if (translated.failed()) {
+          done.handle(new DefaultFutureResult<JsonObject>(translated.cause()));
+          return;
+        }
+        
+        workers.run(vertx, new Callable<JsonObject>() {
+          @Override
+          public JsonObject call() {
+            JsonObject networks = new JsonObject();
+            for (JsonObject net : translated.result().translate()) {
+              networks.putObject(net.getString("name"), analyzer.analyze(net, rate));
+            }
+            return new JsonObject().putObject("networks", networks);
+          }
+        }, done);
+      }
+    });
+  }
+  
+  /**
+   * Appends the flow to the history in the background, after all history requests accepted before.
+   */
+  private void record(final JsonArray flow, final Buffer raw) {
+    if (history == null) {
+      return;
+    }
+    
+    historyQueue.run(vertx, new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        return history.append(flow != null? flow : new JsonArray(raw.toString()));
+      }
+    }, new Handler<AsyncResult<Integer>>() {
+      @Override
+      public void handle(AsyncResult<Integer> event) {
+        if (event.failed()) {
+          System.out.println("Could not record flow revision: "+event.cause().getMessage());
+        }
       }
     });
   }
+  
+  private void withHistory(final Message<JsonObject> msg, Callable<JsonObject> query) {
+    withHistory(msg, query, new Handler<JsonObject>() {
+      @Override
+      public void handle(JsonObject result) {
+        msg.reply(result.putString("status", "ok"));
+      }
+    });
+  }
+  
+  /**
+   * Runs the history query in the background, in order with the appends, and hands its result to the handler.
+   * Failures are replied as error.
+   */
+  private void withHistory(final Message<JsonObject> msg, Callable<JsonObject> query, final Handler<JsonObject> result) {
+    if (history == null) {
+      msg.reply(new JsonObject().putString("status", "error").putString("message", "No flow history"));
+      return;
+    }
+    
+    historyQueue.run(vertx, query, new Handler<AsyncResult<JsonObject>>() {
+      @Override
+      public void handle(AsyncResult<JsonObject> event) {
+        if (event.succeeded()) {
+          result.handle(event.result());
+        } else {
+          msg.reply(new JsonObject().putString("status", "error").putString("message", String.valueOf(event.cause().getMessage())));
+        }
+      }
+    });
+  }
+
+  /**
+   * Registers the handler with timing, counters and payload sizes recorded by the {@link HandlerMetrics}.
+   */
+  private <T> void instrumented(String address, Handler<Message<T>> h) {
+    vertx.eventBus().registerHandler(address, handlerMetrics.wrap(address, h));
+  }
+
+  @Override
+  public void stop() {
+    if (autoscaler != null) {
+      autoscaler.stop();
+    }
+    if (handlerMetrics != null) {
+      handlerMetrics.stop();
+    }
+    if (metrics != null) {
+      metrics.stop();
+    }
+    if (networks != null) {
+      networks.stop();
+    }
+    if (flows != null) {
+      flows.close();
+    }
+    if (workers != null) {
+      workers.shutdown();
+    }
+    if (loader != null) {
+      loader.stop();
+    }
+    if (history != null) {
+      try {
+        history.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    super.stop();
+  }
 
   private void deployVertigo(String cluster) {
     //vertx.fileSystem().mkdirSync("mods"); // stores modules
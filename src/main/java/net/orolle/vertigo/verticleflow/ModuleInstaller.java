@@ -0,0 +1,146 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.impl.DefaultPlatformManager;
+
+/**
+ * Installs modules with a bounded number of concurrent installations.
+ * Modules are installed once: installed modules are remembered and
+ * concurrent requests for a module share the running installation.
+ * Not thread-safe, use it from a single context.
+ */
+public class ModuleInstaller {
+  private final DefaultPlatformManager mgr;
+  private final int parallelism;
+  private final Set<String> installed = new HashSet<>();
+  private final Map<String, List<Handler<AsyncResult<Void>>>> installing = new HashMap<>();
+  private final Map<String, Long> times = new HashMap<>();
+  private final LinkedList<String> queue = new LinkedList<>();
+  private int running = 0;
+
+  public ModuleInstaller(DefaultPlatformManager mgr, int parallelism) {
+    this.mgr = mgr;
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Installs the modules. The result holds per module the status ("cached", "installed" or "failed"),
+   * the installation time in ms and the error if any, plus the total time in ms. It fails if any module could not be installed.
+   */
+  public void install(Collection<String> moduleIds, final Handler<AsyncResult<JsonObject>> done) {
+    final Set<String> ids = new LinkedHashSet<>(moduleIds);
+    final JsonObject modules = new JsonObject();
+    final long start = System.currentTimeMillis();
+    final int[] pending = {ids.size()};
+    final List<String> failed = new ArrayList<>();
+
+    if(ids.isEmpty()) {
+      done.handle(new DefaultFutureResult<>(result(modules, start)));
+      return;
+    }
+
+    for (final String id : ids) {
+      if(installed.contains(id)) {
+        modules.putObject(id, new JsonObject().putString("status", "cached").putNumber("time", 0));
+        pending[0]--;
+        continue;
+      }
+
+      install(id, new Handler<AsyncResult<Void>>() {
+        @Override
+        public void handle(AsyncResult<Void> event) {
+          JsonObject timing = new JsonObject()
+          .putString("status", event.succeeded()? "installed" : "failed")
+          .putNumber("time", times.get(id));
+
+          if(event.failed()) {
+            timing.putString("error", String.valueOf(event.cause().getMessage()));
+            failed.add(id);
+          }
+          modules.putObject(id, timing);
+
+          if(--pending[0] == 0) {
+            finish(modules, start, failed, done);
+          }
+        }
+      });
+    }
+
+    if(pending[0] == 0) {
+      finish(modules, start, failed, done);
+    }
+  }
+
+  private void finish(JsonObject modules, long start, List<String> failed, Handler<AsyncResult<JsonObject>> done) {
+    if(failed.isEmpty()) {
+      done.handle(new DefaultFutureResult<>(result(modules, start)));
+    } else {
+      done.handle(new DefaultFutureResult<JsonObject>(new IllegalStateException("Could not install "+failed)));
+    }
+  }
+
+  private static JsonObject result(JsonObject modules, long start) {
+    return new JsonObject().putObject("modules", modules).putNumber("time", System.currentTimeMillis() - start);
+  }
+
+  private void install(String moduleId, Handler<AsyncResult<Void>> h) {
+    List<Handler<AsyncResult<Void>>> waiters = installing.get(moduleId);
+
+    if(waiters == null) {
+      waiters = new ArrayList<>();
+      installing.put(moduleId, waiters);
+      queue.add(moduleId);
+    }
+
+    waiters.add(h);
+    next();
+  }
+
+  private void next() {
+    while (running < parallelism && !queue.isEmpty()) {
+      final String moduleId = queue.poll();
+      final long start = System.currentTimeMillis();
+      running++;
+
+      mgr.installModule(moduleId, new Handler<AsyncResult<Void>>() {
+        @Override
+        public void handle(AsyncResult<Void> event) {
+          running--;
+          times.put(moduleId, System.currentTimeMillis() - start);
+
+          // vert.x refuses to install a module twice, which is fine for us
+          AsyncResult<Void> res = event.succeeded() || isAlreadyInstalled(event.cause())?
+              new DefaultFutureResult<Void>((Void) null) : event;
+
+          if(res.succeeded()) {
+            installed.add(moduleId);
+          }
+          System.out.println("Install "+moduleId+"? "+res.succeeded());
+
+          for (Handler<AsyncResult<Void>> h : installing.remove(moduleId)) {
+            h.handle(res);
+          }
+
+          next();
+        }
+      });
+    }
+  }
+
+  private static boolean isAlreadyInstalled(Throwable t) {
+    return t != null && t.getMessage() != null && t.getMessage().contains("already installed");
+  }
+}
@@ -0,0 +1,209 @@
+package net.orolle.vertigo.verticleflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.orolle.vertigo.verticleflow.util.ModJson;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Walks a maven repository in parallel on a bounded fork-join pool, off the event loop.
+ * Module zips are validated against the {@link ComponentIndex} and only opened if they are new or changed.
+ */
+public class RepositoryScanner {
+  private final Vertx vertx;
+  private final ForkJoinPool pool;
+
+  public RepositoryScanner(Vertx vertx, int parallelism) {
+    this.vertx = vertx;
+    this.pool = new ForkJoinPool(Math.max(1, parallelism));
+  }
+
+  /**
+   * Starts a scan of the repository. The handler is called on the caller's context once the walk completed.
+   */
+  public Scan scan(String repository, ComponentIndex index, Handler<AsyncResult<Scan>> done) {
+    final Scan scan = new Scan(new File(repository).toPath(), index, vertx.currentContext(), done);
+    pool.execute(scan);
+    return scan;
+  }
+
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * @return the vert.x module id of a module zip, derived from its maven coordinates.
+   */
+  public static String moduleId(Path repository, Path zip) {
+    Path rel = repository.relativize(zip);
+    if(rel.getNameCount() > 0 && rel.getName(0).toString().equals("repository")) {
+      rel = rel.subpath(1, rel.getNameCount());
+    }
+
+    int n = rel.getNameCount();
+    if(n < 3) {
+      throw new IllegalArgumentException("Not a maven artifact path: "+zip);
+    }
+
+    String version = rel.getName(n-2).toString();
+    String name = rel.getName(n-3).toString();
+
+    String owner = "";
+    for (int i = 0; i < n-3; i++) {
+      owner += (i==0? "" : ".") + rel.getName(i);
+    }
+
+    return owner+"~"+name+"~"+version;
+  }
+
+  /**
+   * Reads the mod.json of the zip into the index unless the indexed entry is still valid.
+   *
+   * @return the new entry or null if the zip is unchanged or no maven artifact
+   */
+  public static JsonObject indexZip(Path repository, ComponentIndex index, File file) {
+    String path = file.getPath();
+    long size = file.length(), modified = file.lastModified();
+
+    if(index.lookup(path, size, modified) != null) {
+      return null;
+    }
+
+    String moduleId;
+    try {
+      moduleId = moduleId(repository, file.toPath());
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      return null;
+    }
+
+    JsonObject vertigo = null;
+    try {
+      JsonObject mod = ModJson.read(file);
+      vertigo = mod == null? null : mod.getObject("vertigo");
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Could not read mod.json of '"+file+"': "+e.getMessage());
+    }
+
+    return index.put(path, size, modified, moduleId, vertigo);
+  }
+
+  /**
+   * A running or completed scan. Progress counters may be read from any thread.
+   */
+  public static class Scan extends RecursiveAction {
+    private static final long serialVersionUID = 4305166470120153052L;
+
+    private final Path repository;
+    private final ComponentIndex index;
+    private final Context context;
+    private final Handler<AsyncResult<Scan>> done;
+    private final Set<String> zips = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong dirs = new AtomicLong(), extracted = new AtomicLong();
+    private volatile boolean complete = false;
+
+    private Scan(Path repository, ComponentIndex index, Context context, Handler<AsyncResult<Scan>> done) {
+      this.repository = repository;
+      this.index = index;
+      this.context = context;
+      this.done = done;
+    }
+
+    @Override
+    protected void compute() {
+      Throwable failure = null;
+
+      try {
+        new DirTask(repository.toFile()).invoke();
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+
+      complete = true;
+      final DefaultFutureResult<Scan> res = failure == null? new DefaultFutureResult<>(this) :
+        new DefaultFutureResult<Scan>(failure);
+
+      context.runOnContext(new Handler<Void>() {
+        @Override
+        public void handle(Void event) {
+          done.handle(res);
+        }
+      });
+    }
+
+    /**
+     * @return paths of all module zips found so far.
+     */
+    public Set<String> zips() {
+      return zips;
+    }
+
+    public boolean isComplete() {
+      return complete;
+    }
+
+    public JsonObject progress() {
+      return new JsonObject()
+      .putBoolean("complete", complete)
+      .putNumber("directories", dirs.get())
+      .putNumber("zips", zips.size())
+      .putNumber("extracted", extracted.get());
+    }
+
+    private void visitZip(File file) {
+      zips.add(file.getPath());
+
+      if(indexZip(repository, index, file) != null) {
+        extracted.incrementAndGet();
+      }
+    }
+
+    private class DirTask extends RecursiveAction {
+      private static final long serialVersionUID = -1290567806441425312L;
+      private final File dir;
+
+      private DirTask(File dir) {
+        this.dir = dir;
+      }
+
+      @Override
+      protected void compute() {
+        dirs.incrementAndGet();
+        File[] children = dir.listFiles();
+        if(children == null) {
+          return;
+        }
+
+        List<DirTask> subs = new ArrayList<>();
+        for (File child : children) {
+          if(child.isDirectory()) {
+            if(!Files.isSymbolicLink(child.toPath())) {
+              subs.add(new DirTask(child));
+            }
+          } else if(child.getName().endsWith("-mod.zip")) {
+            visitZip(child);
+          }
+        }
+
+        invokeAll(subs);
+      }
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package net.orolle.vertigo.verticleflow;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Watches module directories of a maven repository and keeps the {@link ComponentIndex} up to date
+ * as module zips appear, change or vanish.
+ * Changes are collected until the directories are quiet for a moment, so zips are not read while they are still copied.
+ * Every batch of changes is reported as JsonArray of deltas <code>{"action": "added"|"updated"|"removed", "moduleId": ...}</code>
+ * on the context which started the watcher.
+ */
+public class RepositoryWatcher implements Runnable {
+  private static final long QUIET_MS = 500;
+
+  private final Path repository;
+  private final List<Path> roots;
+  private final ComponentIndex index;
+  private final Context context;
+  private final Handler<JsonArray> deltas;
+  private final Map<WatchKey, Path> keys = new HashMap<>();
+  private final Set<Path> changedZips = new LinkedHashSet<>(), deletedDirs = new LinkedHashSet<>();
+  private WatchService watcher;
+  private Thread thread;
+  private boolean overflow = false;
+
+  public RepositoryWatcher(Vertx vertx, Path repository, List<Path> roots, ComponentIndex index, Handler<JsonArray> deltas) {
+    this.repository = repository;
+    this.roots = roots;
+    this.index = index;
+    this.context = vertx.currentContext();
+    this.deltas = deltas;
+  }
+
+  public RepositoryWatcher start() throws IOException {
+    watcher = FileSystems.getDefault().newWatchService();
+
+    for (Path root : roots) {
+      registerTree(root, false);
+    }
+
+    thread = new Thread(this, "verticle.flow-repository-watcher");
+    thread.setDaemon(true);
+    thread.start();
+
+    return this;
+  }
+
+  public void stop() {
+    if(thread != null) {
+      thread.interrupt();
+    }
+
+    try {
+      if(watcher != null) {
+        watcher.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = hasChanges()? watcher.poll(QUIET_MS, TimeUnit.MILLISECONDS) : watcher.take();
+
+        if(key == null) {
+          flush();
+          continue;
+        }
+
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if(event.kind() == OVERFLOW || dir == null) {
+            overflow = true;
+            continue;
+          }
+
+          Path child = dir.resolve((Path) event.context());
+          if(event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+            registerTree(child, true);
+          } else if(child.getFileName().toString().endsWith("-mod.zip")) {
+            changedZips.add(child);
+          } else if(event.kind() == ENTRY_DELETE) {
+            deletedDirs.add(child);
+          }
+        }
+
+        if(!key.reset()) {
+          keys.remove(key);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // stopped
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private boolean hasChanges() {
+    return overflow || !changedZips.isEmpty() || !deletedDirs.isEmpty();
+  }
+
+  /**
+   * Registers the directory and its sub directories.
+   *
+   * @param collect true to treat zips found in the tree as changed, e.g. for directories created while not yet watched
+   */
+  private void registerTree(Path root, final boolean collect) throws IOException {
+    if(!Files.isDirectory(root)) {
+      return;
+    }
+
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if(collect && file.getFileName().toString().endsWith("-mod.zip")) {
+          changedZips.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void flush() throws IOException {
+    final JsonArray res = new JsonArray();
+
+    if(overflow) {
+      // Events were lost: revalidate every watched zip
+      overflow = false;
+      final Set<String> existing = new HashSet<>();
+      for (Path root : roots) {
+        registerTree(root, true);
+      }
+      for (Path zip : changedZips) {
+        existing.add(zip.toString());
+      }
+      for (JsonObject entry : index.retain(existingOrOutsideRoots(existing))) {
+        addDelta(res, entry, null);
+      }
+    }
+
+    for (Path dir : deletedDirs) {
+      for (JsonObject entry : index.removeUnder(dir.toString())) {
+        addDelta(res, entry, null);
+      }
+    }
+    deletedDirs.clear();
+
+    for (Path zip : changedZips) {
+      String path = zip.toString();
+      JsonObject before = index.get(path);
+
+      if(Files.isRegularFile(zip)) {
+        JsonObject after = RepositoryScanner.indexZip(repository, index, zip.toFile());
+        if(after != null) {
+          addDelta(res, before, after);
+        }
+      } else {
+        addDelta(res, index.remove(path), null);
+      }
+    }
+    changedZips.clear();
+
+    if(res.size() > 0) {
+      context.runOnContext(new Handler<Void>() {
+        @Override
+        public void handle(Void event) {
+          deltas.handle(res);
+        }
+      });
+    }
+  }
+
+  /**
+   * Extends the set of existing zips by all indexed zips outside of the watched roots, so those are retained.
+   */
+  private Set<String> existingOrOutsideRoots(Set<String> existing) {
+    Set<String> res = new HashSet<>(existing);
+
+    for (String path : index.paths()) {
+      boolean watched = false;
+      for (Path root : roots) {
+        watched |= path.startsWith(root.toString());
+      }
+      if(!watched) {
+        res.add(path);
+      }
+    }
+
+    return res;
+  }
+
+  private static void addDelta(JsonArray res, JsonObject before, JsonObject after) {
+    boolean was = before != null && ComponentIndex.toComponent(before) != null;
+    boolean is = after != null && ComponentIndex.toComponent(after) != null;
+
+    if(is) {
+      res.addObject(new JsonObject().putString("action", was? "updated" : "added")
+          .putString("moduleId", ComponentIndex.moduleId(after)));
+    } else if(was) {
+      res.addObject(new JsonObject().putString("action", "removed")
+          .putString("moduleId", ComponentIndex.moduleId(before)));
+    }
+  }
+}
@@ -3,12 +3,12 @@ package net.orolle.vertigo.verticleflow;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
-public class VertigoComponent extends JsonObject {
-  private static final long serialVersionUID = -3019602879298434843L;
-  private static final String MODULEID = "moduleId", MOD = "mod";
+public final class VertigoComponent {
+  private final String moduleId;
+  private final JsonObject mod;
 
   public static VertigoComponent createComponent(String moduleId, JsonObject mod){
-    return new VertigoComponent().mod(mod).moduleId(moduleId);
+    return new VertigoComponent(moduleId, mod);
   }
 
   public static VertigoComponent createGroupingComponent(String moduleId) {
@@ -23,26 +23,17 @@ public class VertigoComponent extends JsonObject {
     return new JsonObject().putString("name", name).putString("type", type);
   }
 
-  private VertigoComponent() {
-
+  private VertigoComponent(String moduleId, JsonObject mod) {
+    this.moduleId = moduleId.intern();
+    this.mod = mod;
   }
 
   public String moduleId(){
-    return this.getString(MODULEID);
-  }
-
-  public VertigoComponent moduleId(String id){
-    this.putString(MODULEID, id);
-    return this;
+    return moduleId;
   }
 
   public JsonObject mod(){
-    return this.getObject(MOD);
-  }
-
-  public VertigoComponent mod(JsonObject mod){
-    this.putObject(MOD, mod);
-    return this;
+    return mod;
   }
 
   public boolean isGrouping(){
@@ -2,24 +2,38 @@ package net.orolle.vertigo.verticleflow;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+
+import net.orolle.vertigo.verticleflow.translate.NetworkDiff;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.impl.DefaultFutureResult;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Container;
 import org.vertx.java.platform.impl.DefaultPlatformManager;
 
 public class VertigoManager {
+  private static final long LIST_TIMEOUT_MS = 10000, CHANGE_TIMEOUT_MS = 60000;
+
   private final Vertx vertx;
   private final Container container;
   private final String vAddress;
   private DefaultPlatformManager deployManager;
+  private ModuleInstaller installer;
+  private final List<Handler<Void>> changeHandlers = new ArrayList<>();
 
   public VertigoManager(Vertx vertx, Container container, String addr) {
+    this(vertx, container, addr, 4);
+  }
+
+  public VertigoManager(Vertx vertx, Container container, String addr, int installParallelism) {
     super();
     this.vertx = vertx;
     this.container = container;
@@ -30,6 +44,7 @@ public class VertigoManager {
       f = this.container.getClass().getDeclaredField("mgr");
       f.setAccessible(true);
       deployManager = (DefaultPlatformManager) f.get(container);
+      installer = new ModuleInstaller(deployManager, installParallelism);
     } catch (NoSuchFieldException | SecurityException e) {
       e.printStackTrace();
     } catch (IllegalArgumentException e) {
@@ -40,58 +55,200 @@ public class VertigoManager {
 
   }
 
-  public void activeNetworks(final Handler<List<JsonObject>> h){
-    vertx.eventBus().send(vAddress, new JsonObject()
-    .putString("action", "list").putString("type", "network"), new Handler<Message<JsonObject>>() {
+  /**
+   * Lists the networks of the cluster.
+   * Fails if the cluster does not answer within the timeout or reports an error.
+   */
+  public void listNetworks(long timeoutMs, final Handler<AsyncResult<List<JsonObject>>> h) {
+    vertx.eventBus().sendWithTimeout(vAddress, new JsonObject()
+    .putString("action", "list").putString("type", "network"), timeoutMs, new Handler<AsyncResult<Message<JsonObject>>>() {
       @Override
-      public void handle(Message<JsonObject> reply) {
+      public void handle(AsyncResult<Message<JsonObject>> reply) {
+        if (reply.failed()) {
+          h.handle(new DefaultFutureResult<List<JsonObject>>(reply.cause()));
+          return;
+        }
+        
+        JsonObject body = reply.result().body();
+        if (!"ok".equals(body.getString("status"))) {
+          h.handle(new DefaultFutureResult<List<JsonObject>>(new IllegalStateException(body.getString("message", "Could not list networks"))));
+          return;
+        }
+        
         List<JsonObject> res = new ArrayList<>();
+        for (Object object : body.getArray("result", new JsonArray())) {
+          if (object instanceof JsonObject) {
+            res.add((JsonObject) object);
+          }
+        }
+        h.handle(new DefaultFutureResult<>(res));
+      }
+    });
+  }
+
+  /**
+   * Registers a handler called whenever the cluster answered a deployment or undeployment of this manager.
+   */
+  public void onChange(Handler<Void> h) {
+    changeHandlers.add(h);
+  }
 
-        if (reply.body().getString("status").equals("ok")) {
-          JsonArray networks = reply.body().getArray("result");
-          for (Object object : networks) {
-            if (object instanceof JsonObject) {
-              JsonObject jNet = (JsonObject) object;
-              res.add(jNet);
+  private void changed() {
+    for (Handler<Void> h : changeHandlers) {
+      h.handle(null);
+    }
+  }
+
+  /**
+   * Starts scaling the deployed components to the metrics published by the {@link net.orolle.vertigo.verticleflow.metrics.MetricsCollector},
+   * see {@link Autoscaler}.
+   */
+  public Autoscaler autoscale(JsonObject config) {
+    return new Autoscaler(vertx, this, config).start();
+  }
+
+  /**
+   * Deploys the networks with the minimal set of changes:
+   * networks which are running are diffed against their active configuration
+   * and only changed components and connections are undeployed and deployed again.
+   * Modules of deployed components are installed before any network is touched.
+   * The result holds the installation timings of the modules, see {@link ModuleInstaller#install},
+   * and a summary of the changes per network.
+   * The networks are changed one after another. Fails if the cluster does not list its networks in time,
+   * or if it reports an error or does not answer in time for a change, the remaining networks are not changed then.
+   */
+  public void deploy(final List<JsonObject> networks, final Handler<AsyncResult<JsonObject>> done) {
+    listNetworks(LIST_TIMEOUT_MS, new Handler<AsyncResult<List<JsonObject>>>() {
+      @Override
+      public void handle(AsyncResult<List<JsonObject>> active) {
+        if(active.failed()) {
+          done.handle(new DefaultFutureResult<JsonObject>(active.cause()));
+          return;
+        }
+
+        Map<String, JsonObject> running = new HashMap<>();
+        for (JsonObject net : active.result()) {
+          JsonObject config = networkConfig(net);
+          running.put(config.getString("name"), config);
+        }
+
+        final List<NetworkDiff> diffs = new ArrayList<>();
+        List<String> moduleIds = new ArrayList<>();
+        for (JsonObject network : networks) {
+          NetworkDiff diff = new NetworkDiff(running.get(network.getString("name")), network);
+          diffs.add(diff);
+
+          JsonObject components = diff.added().getObject("components");
+          for (String id : components.getFieldNames()) {
+            moduleIds.add(components.getObject(id).getString("module"));
+          }
+        }
+
+        Handler<AsyncResult<JsonObject>> deployAll = new Handler<AsyncResult<JsonObject>>() {
+          @Override
+          public void handle(AsyncResult<JsonObject> event) {
+            if(event.failed()) {
+              done.handle(event);
+            } else {
+              apply(diffs.iterator(), event.result(), new JsonObject(), done);
             }
           }
+        };
+
+        if(installer == null) {
+          deployAll.handle(new DefaultFutureResult<>(new JsonObject()));
+        } else {
+          installer.install(moduleIds, deployAll);
         }
-        
-        h.handle(res);
       }
     });
   }
 
-  public void deploy(JsonObject network) {
-    JsonObject deploy = new JsonObject()
-    .putString("action", "deploy")
-    .putString("type", "network")
-    .putObject("network", network);
-
-    for (String id : network.getObject("components").getFieldNames()) {
-      final String moduleId = network.getObject("components").getObject(id).getString("module");
-      
-      deployManager.installModule(moduleId, new Handler<AsyncResult<Void>>() {
-        @Override
-        public void handle(AsyncResult<Void> event) {
-          System.out.println("Install "+moduleId+"? "+event.succeeded());
-        }
-      });
+  private void apply(final Iterator<NetworkDiff> diffs, final JsonObject result, final JsonObject summary, final Handler<AsyncResult<JsonObject>> done) {
+    if(!diffs.hasNext()) {
+      done.handle(new DefaultFutureResult<>(result.putObject("networks", summary)));
+      return;
     }
 
-    vertx.eventBus().send(vAddress, deploy);
+    final NetworkDiff diff = diffs.next();
+    apply(diff, new Handler<AsyncResult<Void>>() {
+      @Override
+      public void handle(AsyncResult<Void> event) {
+        if(event.failed()) {
+          done.handle(new DefaultFutureResult<JsonObject>(event.cause()));
+          return;
+        }
 
-    System.out.println("DEPLOY: " + deploy.encodePrettily());
+        summary.putObject(diff.added().getString("name"), diff.summary());
+        apply(diffs, result, summary, done);
+      }
+    });
   }
 
-  public void shutdown(JsonObject network) {
+  private void apply(final NetworkDiff diff, final Handler<AsyncResult<Void>> done) {
+    if(diff.isEmpty()) {
+      done.handle(new DefaultFutureResult<Void>((Void) null));
+      return;
+    }
+
+    final JsonObject deploy = new JsonObject()
+    .putString("action", "deploy")
+    .putString("type", "network")
+    .putObject("network", diff.added());
+
+    if(NetworkDiff.isEmpty(diff.removed())) {
+      send(deploy, done);
+      return;
+    }
+
+    // Partial undeploy of removed and reconfigured parts, then deploy their replacements unless the undeploy failed
     JsonObject undeploy = new JsonObject()
     .putString("action", "undeploy")
     .putString("type", "network")
-    .putString("network", network.getString("name"));
+    .putObject("network", diff.removed());
 
-    vertx.eventBus().send(vAddress, undeploy);
+    send(undeploy, new Handler<AsyncResult<Void>>() {
+      @Override
+      public void handle(AsyncResult<Void> event) {
+        if(event.failed() || NetworkDiff.isEmpty(diff.added())) {
+          done.handle(event);
+        } else {
+          send(deploy, done);
+        }
+      }
+    });
+  }
+
+  /**
+   * Sends a deploy or undeploy action to the cluster, fails if it does not answer within the timeout or reports an error.
+   */
+  private void send(final JsonObject action, final Handler<AsyncResult<Void>> done) {
+    final String what = action.getString("action")+" of network '"+action.getObject("network").getString("name")+"'";
+    System.out.println(action.getString("action").toUpperCase()+": " + action.encodePrettily());
+
+    vertx.eventBus().sendWithTimeout(vAddress, action, CHANGE_TIMEOUT_MS, new Handler<AsyncResult<Message<JsonObject>>>() {
+      @Override
+      public void handle(AsyncResult<Message<JsonObject>> reply) {
+        if(reply.failed()) {
+          done.handle(new DefaultFutureResult<Void>(new IllegalStateException("The "+what+" failed: "+reply.cause().getMessage())));
+          return;
+        }
+
+        changed();
+        JsonObject body = reply.result().body();
+        if("ok".equals(body.getString("status"))) {
+          done.handle(new DefaultFutureResult<Void>((Void) null));
+        } else {
+          done.handle(new DefaultFutureResult<Void>(new IllegalStateException("The "+what+" failed: "+body.getString("message", "unknown error"))));
+        }
+      }
+    });
+  }
 
-    System.out.println("UNDEPLOY: " + undeploy.encodePrettily());
+  /**
+   * @return the network configuration of an entry listed by the vertigo cluster.
+   */
+  public static JsonObject networkConfig(JsonObject listed) {
+    return listed.getObject("network", new JsonObject()).getObject("config", new JsonObject());
   }
 }
@@ -1,13 +1,22 @@
 package net.orolle.vertigo.verticleflow;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.orolle.vertigo.verticleflow.util.Template;
+import net.orolle.vertigo.verticleflow.util.Tool;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
@@ -17,143 +26,333 @@ import org.vertx.java.core.json.JsonObject;
 
 public class VertigoMavenLoader {
   private final Vertx vertx;
-  private final String mavenPath, template;
-  private final List<VertigoComponent> components = new ArrayList<>();
+  private final String mavenPath;
+  private Template template;
+  private final ComponentIndex index;
+  private final RepositoryScanner scanner;
+  private final List<Handler<Void>> scanWaiters = new ArrayList<>();
+  private final Map<String, String> htmlCache = new ConcurrentHashMap<>();
+  private volatile Map<String, VertigoComponent> components = new LinkedHashMap<>();
+  private RepositoryScanner.Scan scan;
+  private RepositoryWatcher watcher;
   
   public VertigoMavenLoader(Vertx v, String mavenPath) {
+    this(v, mavenPath, "component-index.json", Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+  
+  public VertigoMavenLoader(Vertx v, String mavenPath, String indexPath, int scanThreads) {
     this.vertx = v;
     this.mavenPath = mavenPath;
-    this.template = vertx.fileSystem().readFileSync("node-red-component-template").toString();
+    this.index = new ComponentIndex(v, indexPath).load();
+    this.scanner = new RepositoryScanner(v, scanThreads);
+    reloadTemplate();
   }
   
   public List<String> getComponentNames() {
-    List<String> names = new ArrayList<>();
-    
-    for (VertigoComponent c : this.components) {
-      names.add(c.moduleId());
+    if(!isScanComplete()) {
+      // Partial result: include the components indexed by the running scan
+      publishComponents();
     }
     
-    return names;
+    return new ArrayList<>(this.components.keySet());
   }
   
+  /**
+   * @return the rendered palette HTML of the component or null if there is no such component.
+   */
   public String getComponentHtml(String name) {
     if(name == null){
       return null;
     }
     
-   for (VertigoComponent c : components) {
-     if(c.moduleId().equals(name)) {
-       return createComponentCode(c);
-     }
-   }
-   
-   return null;
+    String html = htmlCache.get(name);
+    if(html == null) {
+      VertigoComponent c = components.get(name);
+      if(c == null) {
+        return null;
+      }
+      
+      html = createComponentCode(c);
+      htmlCache.put(name, html);
+    }
+    
+    return html;
   }
   
-  private String createComponentCode(VertigoComponent comp) {    
-    return this.template.replace("\"component\"", "\""+ comp.moduleId() +"\"")
-        .replace("\"<INPUTS>\"", createInputPorts(comp))
-        .replace("\"<OUTPUTS>\"", createOutputPorts(comp));
+  /**
+   * @param names module ids or null for all components
+   * @return the rendered palette HTML by module id. Unknown names are omitted.
+   */
+  public JsonObject getComponentHtml(List<String> names) {
+    JsonObject res = new JsonObject();
+    
+    for (String name : names == null? getComponentNames() : names) {
+      String html = getComponentHtml(name);
+      if(html != null) {
+        res.putString(name, html);
+      }
+    }
+    
+    return res;
   }
-
-  private String createInputPorts(VertigoComponent comp) {
-    return comp.mod().getObject("vertigo", new JsonObject()).getArray("inputs", new JsonArray()).encode();
+  
+  /**
+   * @return the cost profiles declared under <code>vertigo.cost</code> in the mod.json of the components, by module id.
+   * Components without a profile are omitted.
+   */
+  public Map<String, JsonObject> getCostProfiles() {
+    Map<String, JsonObject> res = new HashMap<>();
+    
+    for (VertigoComponent c : components.values()) {
+      JsonObject cost = c.mod().getObject("vertigo", new JsonObject()).getObject("cost");
+      if(cost != null) {
+        res.put(c.moduleId(), cost);
+      }
+    }
+    
+    return res;
   }
   
-  private String createOutputPorts(VertigoComponent comp) {
-    return comp.mod().getObject("vertigo", new JsonObject()).getArray("outputs", new JsonArray()).encode();
+  /**
+   * @return the module ids of the components marked <code>"vertigo": {"fusible": true}</code> in their mod.json.
+   */
+  public Set<String> getFusibleModules() {
+    Set<String> res = new HashSet<>();
+    
+    for (VertigoComponent c : components.values()) {
+      if(c.mod().getObject("vertigo", new JsonObject()).getBoolean("fusible", false)) {
+        res.add(c.moduleId());
+      }
+    }
+    
+    return res;
   }
-
   
-  public VertigoMavenLoader reload() {
-    components.clear();
+  /**
+   * Re-reads the component template and drops all rendered HTML.
+   */
+  public VertigoMavenLoader reloadTemplate() {
+    this.template = Template.compile(vertx.fileSystem().readFileSync("node-red-component-template").toString());
+    htmlCache.clear();
+    return this;
+  }
+  
+  private String createComponentCode(VertigoComponent comp) {
+    JsonObject vertigo = comp.mod().getObject("vertigo", new JsonObject());
+    JsonArray inputs = vertigo.getArray("inputs", new JsonArray());
+    JsonArray outputs = vertigo.getArray("outputs", new JsonArray());
+    Object instances = vertigo.getValue("instances");
     
-    this.components.add(VertigoComponent.createGroupingComponent("round-robin"));
-    this.components.add(VertigoComponent.createGroupingComponent("random"));
-    this.components.add(VertigoComponent.createGroupingComponent("hash"));
-    this.components.add(VertigoComponent.createGroupingComponent("fair"));
-    this.components.add(VertigoComponent.createGroupingComponent("all"));
+    Map<String, String> values = new HashMap<>();
+    values.put("COMPONENT", Tool.quote(comp.moduleId()));
+    values.put("INPUTS", inputs.encode());
+    values.put("OUTPUTS", outputs.encode());
+    JsonObject config = vertigo.getObject("config");
+    values.put("CONFIG", Tool.quote(config == null? "{\n  \n}" : config.encodePrettily()));
+    values.put("INSTANCES", Tool.quote(instances == null? "1" : instances.toString()));
+    values.put("DESCRIPTION", Tool.escapeHtml(vertigo.getString("description", "A component.")));
+    values.put("PORTS", createPortsHelp(inputs, outputs));
     
-    loadLocalMavenComponents(mavenPath);
+    return this.template.render(values);
+  }
+
+  private String createPortsHelp(JsonArray inputs, JsonArray outputs) {
+    StringBuilder html = new StringBuilder();
     
-    return this;
+    if(inputs.size() > 0) {
+      html.append("<p>Inputs:</p>");
+      createPortsHelp(html, inputs);
+    }
+    if(outputs.size() > 0) {
+      html.append("<p>Outputs:</p>");
+      createPortsHelp(html, outputs);
+    }
+    
+    return html.toString();
   }
   
-  private void loadLocalMavenComponents(String path) {
-    if(new File(path).isDirectory()){
-      // Directory
-      vertx.fileSystem().readDir(path, new Handler<AsyncResult<String[]>>() {
-        @Override
-        public void handle(AsyncResult<String[]> event) {
-          if(event.succeeded()) {
-            for (String sub : event.result()) {
-              loadLocalMavenComponents(sub);
-            }
-          }
-        }
-      });
-    } else {
-      // File
-      if(new File(path).getName().endsWith("-mod.zip")) {
-        String moduleId = moduleId(path);
-        JsonObject mod = extractModJson(new File(path));
-        
-        if(mod.getObject("vertigo") != null){
-          this.components.add(VertigoComponent.createComponent(moduleId, mod));
-        }
+  private void createPortsHelp(StringBuilder html, JsonArray ports) {
+    html.append("<ul>");
+    for (Object o : ports) {
+      if (o instanceof JsonObject) {
+        JsonObject port = (JsonObject) o;
+        html.append("<li><code>").append(Tool.escapeHtml(port.getString("name", ""))).append("</code> ")
+        .append(Tool.escapeHtml(port.getString("type", "*"))).append("</li>");
       }
     }
+    html.append("</ul>");
   }
 
-  private String moduleId(String path) {
-    path = path.split(System.getProperty("user.home")+File.separator+".m2"+File.separator+"repository"+File.separator)[1];
-    String[] segment = path.split(File.separator);
-
-    String version = segment[segment.length-2];
-    String name = segment[segment.length-3];
-
-    String owner = ""; 
-    for (int i = 0; i < segment.length-3; i++) {
-      owner += (i==0? "" : ".") + segment[i];
+  /**
+   * @return true if the last started repository scan completed.
+   */
+  public boolean isScanComplete() {
+    return scan == null || scan.isComplete();
+  }
+  
+  /**
+   * @return the progress counters of the last started repository scan.
+   */
+  public JsonObject scanProgress() {
+    return scan == null? new JsonObject().putBoolean("complete", true) : scan.progress();
+  }
+  
+  /**
+   * Calls the handler once the running repository scan completed, or immediately if no scan is running.
+   */
+  public void whenScanned(Handler<Void> h) {
+    if(isScanComplete()) {
+      h.handle(null);
+    } else {
+      scanWaiters.add(h);
     }
-
-    return owner+"~"+name+"~"+version;
   }
-
+  
   /**
-   * DANGER! NO ASYNC FILE OPEN & CLOSE
+   * Keeps the components up to date by watching the module directories once the running scan completed.
+   * Every change is published as <code>{"moduleId": ...}</code> on 
+   * <code>web.out.component.added</code>, <code>web.out.component.updated</code> or <code>web.out.component.removed</code>.
    * 
-   * @param file
-   * @return
+   * Only the given directories are watched, a local repository has far too many directories to watch all of them.
+   * 
+   * @param dirs directories or group ids within the repository to watch,
+   * the group directories of the indexed components if empty
    */
-  private JsonObject extractModJson(File file) {
-    try {
-      ZipInputStream zin = new ZipInputStream(new FileInputStream(file));
-
-      ZipEntry ze = null;
-      while ((ze = zin.getNextEntry()) != null) {
-        if (ze.getName().equals("mod.json")) {
-          StringBuffer raw = new StringBuffer();
-          byte[] buffer = new byte[8192];
-          int len;
-          while ((len = zin.read(buffer)) != -1) {
-            for (int i = 0; i < len; i++) {
-              raw.append((char)buffer[i]);
+  public VertigoMavenLoader watch(final List<String> dirs) {
+    whenScanned(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        if(watcher != null) {
+          watcher.stop();
+        }
+        
+        List<Path> roots = new ArrayList<>();
+        for (String dir : dirs) {
+          roots.add(watchRoot(dir));
+        }
+        if(roots.isEmpty()) {
+          roots.addAll(componentGroups());
+        }
+        if(roots.isEmpty()) {
+          System.out.println("No component groups to watch in '"+mavenPath+"'");
+          return;
+        }
+        
+        try {
+          watcher = new RepositoryWatcher(vertx, Paths.get(mavenPath), roots, index, new Handler<JsonArray>() {
+            @Override
+            public void handle(JsonArray deltas) {
+              publishComponents();
+              index.save();
+              
+              for (Object o : deltas) {
+                JsonObject delta = (JsonObject) o;
+                htmlCache.remove(delta.getString("moduleId"));
+                vertx.eventBus().publish("web.out.component."+delta.getString("action"), 
+                    new JsonObject().putString("moduleId", delta.getString("moduleId")));
+              }
             }
+          }).start();
+        } catch (IOException e) {
+          System.out.println("Could not watch '"+roots+"': "+e.getMessage());
+        }
+      }
+    });
+    
+    return this;
+  }
+  
+  /**
+   * @return the directory, or the directory of the group id within the repository if there is no such directory.
+   */
+  private Path watchRoot(String dir) {
+    Path path = Paths.get(dir);
+    if(Files.isDirectory(path)) {
+      return path;
+    }
+    
+    Path repository = Paths.get(mavenPath, "repository");
+    return (Files.isDirectory(repository)? repository : Paths.get(mavenPath)).resolve(dir.replace('.', File.separatorChar));
+  }
+  
+  /**
+   * @return the group directories of the indexed components, <code>.../repository/net/kuujo</code> of
+   * <code>.../repository/net/kuujo/vertigo-java/0.7.0/vertigo-java-0.7.0-mod.zip</code>.
+   */
+  private Set<Path> componentGroups() {
+    Set<Path> res = new LinkedHashSet<>();
+    
+    for (String zip : index.paths()) {
+      JsonObject entry = index.get(zip);
+      if(entry == null || ComponentIndex.toComponent(entry) == null) {
+        continue;
+      }
+      
+      Path group = Paths.get(zip);
+      for (int i = 0; i < 3 && group != null; i++) {
+        group = group.getParent();
+      }
+      if(group != null) {
+        res.add(group);
+      }
+    }
+    
+    return res;
+  }
+  
+  public VertigoMavenLoader reload() {
+    reloadTemplate();
+    
+    // Serve the indexed components right away, the scan only revalidates them
+    publishComponents();
+    
+    scan = scanner.scan(mavenPath, index, new Handler<AsyncResult<RepositoryScanner.Scan>>() {
+      @Override
+      public void handle(AsyncResult<RepositoryScanner.Scan> event) {
+        if(event.failed()) {
+          System.out.println("Repository scan of '"+mavenPath+"' failed: "+event.cause().getMessage());
+        } else if(event.result() == scan) {
+          // Drop components whose zips vanished since they were indexed
+          index.retain(event.result().zips());
+          index.save();
+        }
+        
+        if(event.failed() || event.result() == scan) {
+          publishComponents();
+          htmlCache.clear();
+          
+          List<Handler<Void>> waiters = new ArrayList<>(scanWaiters);
+          scanWaiters.clear();
+          for (Handler<Void> h : waiters) {
+            h.handle(null);
           }
-          zin.close();
-          return new JsonObject(raw.toString());
         }
       }
-      zin.close();
-    } catch (FileNotFoundException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    } 
-
-    return null;
+    });
+    
+    return this;
+  }
+  
+  /**
+   * Stops the running repository scan, the repository watcher and their threads.
+   */
+  public void stop() {
+    scanner.shutdown();
+    if(watcher != null) {
+      watcher.stop();
+    }
+  }
+  
+  private void publishComponents() {
+    Map<String, VertigoComponent> res = new LinkedHashMap<>();
+    
+    for (String grouping : new String[]{"round-robin", "random", "hash", "fair", "all"}) {
+      res.put(grouping, VertigoComponent.createGroupingComponent(grouping));
+    }
+    for (VertigoComponent c : index.components()) {
+      res.put(c.moduleId(), c);
+    }
+    
+    this.components = res;
   }
 }
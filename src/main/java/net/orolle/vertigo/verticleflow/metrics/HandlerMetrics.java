@@ -0,0 +1,249 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+
+/**
+ * Instruments event bus handlers: counts requests and errors, measures how long a handler blocks the event loop
+ * and how long it takes until the reply, and samples the payload sizes.
+ * A handler blocking the loop longer than <code>blockedMs</code> is reported, as well as a late timer of the loop probe.
+ * The statistics are exposed as MBeans and on {@link #QUERY}.
+ */
+public class HandlerMetrics implements HandlerMetricsMBean {
+  public static final String QUERY = "web.in.metrics.handlers";
+  public static final String DOMAIN = "net.orolle.vertigo.verticleflow";
+  private static final long PROBE_MS = 100;
+
+  private final Vertx vertx;
+  private final Logger logger;
+  private final long blockedMicros;
+  private final int sampleEvery;
+  private final boolean jmx;
+  private final Map<String, HandlerStats> handlers = new ConcurrentHashMap<>();
+  private final Histogram loopLag = new Histogram();
+  private final AtomicLong warnings = new AtomicLong(), samples = new AtomicLong();
+  private final List<ObjectName> registered = new ArrayList<>();
+  private long probe = -1;
+  private Handler<Message<JsonObject>> query;
+
+  /**
+   * @param logger logger of the verticle, for the blocked loop warnings
+   * @param config <code>{"blockedMs": 50, "sampleEvery": 10, "jmx": true}</code>, sizes are measured for every n-th message
+   */
+  public HandlerMetrics(Vertx vertx, Logger logger, JsonObject config) {
+    this.vertx = vertx;
+    this.logger = logger;
+    this.blockedMicros = config.getLong("blockedMs", 50) * 1000;
+    this.sampleEvery = Math.max(1, config.getInteger("sampleEvery", 10));
+    this.jmx = config.getBoolean("jmx", true);
+  }
+
+  public HandlerMetrics start() {
+    query = new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> msg) {
+        msg.reply(toJson());
+      }
+    };
+    vertx.eventBus().registerHandler(QUERY, query);
+
+    final long[] expected = {System.nanoTime() + PROBE_MS * 1000000};
+    probe = vertx.setPeriodic(PROBE_MS, new Handler<Long>() {
+      @Override
+      public void handle(Long event) {
+        long now = System.nanoTime();
+        long lag = Math.max(0, (now - expected[0]) / 1000);
+        expected[0] = now + PROBE_MS * 1000000;
+
+        loopLag.record(lag);
+        if(lag > blockedMicros) {
+          warnings.incrementAndGet();
+          logger.warn("Event loop was blocked for "+lag/1000+" ms");
+        }
+      }
+    });
+
+    register(this, "type=HandlerMetrics");
+    return this;
+  }
+
+  public void stop() {
+    if(probe != -1) {
+      vertx.cancelTimer(probe);
+    }
+    if(query != null) {
+      vertx.eventBus().unregisterHandler(QUERY, query);
+    }
+
+    for (ObjectName name : registered) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (Exception e) {
+        // already gone
+      }
+    }
+  }
+
+  /**
+   * @return the handler recording its statistics under the address.
+   */
+  public <T> Handler<Message<T>> wrap(final String address, final Handler<Message<T>> h) {
+    final HandlerStats stats = stats(address);
+
+    return new Handler<Message<T>>() {
+      @Override
+      public void handle(Message<T> msg) {
+        final long start = System.nanoTime();
+        final boolean sample = samples.incrementAndGet() % sampleEvery == 0;
+        stats.count.incrementAndGet();
+        if(sample) {
+          stats.requestBytes.record(size(msg.body()));
+        }
+
+        try {
+          h.handle(replies(msg, stats, start, sample));
+        } catch (RuntimeException e) {
+          stats.errors.incrementAndGet();
+          throw e;
+        } finally {
+          long took = (System.nanoTime() - start) / 1000;
+          stats.handle.record(took);
+          if(took > blockedMicros) {
+            stats.blocked.incrementAndGet();
+            warnings.incrementAndGet();
+            logger.warn("Handler of '"+address+"' blocked the event loop for "+took/1000+" ms");
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps the message to record the first reply.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> Message<T> replies(final Message<T> msg, final HandlerStats stats, final long start, final boolean sample) {
+    return (Message<T>) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[]{Message.class}, new InvocationHandler() {
+      private boolean replied = false;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if(!replied && (name.startsWith("reply") || name.equals("fail"))) {
+          replied = true;
+          stats.latency.record((System.nanoTime() - start) / 1000);
+
+          Object body = args != null && args.length > 0 && !(args[0] instanceof Handler)? args[0] : null;
+          if(name.equals("fail") || (body instanceof JsonObject && "error".equals(((JsonObject) body).getString("status")))) {
+            stats.errors.incrementAndGet();
+          }
+          if(sample && !name.equals("fail")) {
+            stats.replyBytes.record(size(body));
+          }
+        }
+
+        try {
+          return method.invoke(msg, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      }
+    });
+  }
+
+  private HandlerStats stats(String address) {
+    HandlerStats stats = handlers.get(address);
+    if(stats == null) {
+      stats = new HandlerStats(address);
+      handlers.put(address, stats);
+      register(stats, "type=Handler,address="+ObjectName.quote(address));
+    }
+    return stats;
+  }
+
+  private void register(Object mbean, String properties) {
+    if(!jmx) {
+      return;
+    }
+
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(DOMAIN+":"+properties);
+      if(!server.isRegistered(name)) {
+        server.registerMBean(mbean, name);
+        registered.add(name);
+      }
+    } catch (Exception e) {
+      logger.warn("Could not register MBean "+properties+": "+e.getMessage());
+    }
+  }
+
+  private static long size(Object body) {
+    if(body == null) {
+      return 0;
+    } else if(body instanceof Buffer) {
+      return ((Buffer) body).length();
+    } else if(body instanceof String) {
+      return ((String) body).length();
+    } else if(body instanceof byte[]) {
+      return ((byte[]) body).length;
+    } else if(body instanceof JsonObject) {
+      return ((JsonObject) body).encode().length();
+    } else if(body instanceof JsonArray) {
+      return ((JsonArray) body).encode().length();
+    }
+    return 8;
+  }
+
+  public JsonObject toJson() {
+    JsonObject res = new JsonObject();
+    for (HandlerStats stats : handlers.values()) {
+      res.putObject(stats.getAddress(), stats.toJson());
+    }
+
+    return new JsonObject()
+    .putObject("handlers", res)
+    .putObject("eventLoop", new JsonObject()
+      .putObject("lag", loopLag.toJson())
+      .putNumber("warnings", warnings.get()));
+  }
+
+  @Override
+  public long getLoopLagP99Micros() {
+    return loopLag.percentile(99);
+  }
+
+  @Override
+  public long getLoopLagMaxMicros() {
+    return loopLag.max();
+  }
+
+  @Override
+  public long getBlockedWarnings() {
+    return warnings.get();
+  }
+
+  @Override
+  public String[] getAddresses() {
+    return handlers.keySet().toArray(new String[0]);
+  }
+}
@@ -0,0 +1,14 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+/**
+ * JMX view of the event loop running the instrumented handlers.
+ */
+public interface HandlerMetricsMBean {
+  long getLoopLagP99Micros();
+
+  long getLoopLagMaxMicros();
+
+  long getBlockedWarnings();
+
+  String[] getAddresses();
+}
@@ -0,0 +1,86 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Statistics of one event bus handler: requests, errors, the time the handler blocked the event loop,
+ * the latency until the reply and the sampled payload sizes.
+ */
+public class HandlerStats implements HandlerStatsMBean {
+  final Histogram handle = new Histogram(), latency = new Histogram();
+  final Histogram requestBytes = new Histogram(), replyBytes = new Histogram();
+  final AtomicLong count = new AtomicLong(), errors = new AtomicLong(), blocked = new AtomicLong();
+  private final String address;
+
+  public HandlerStats(String address) {
+    this.address = address;
+  }
+
+  @Override
+  public String getAddress() {
+    return address;
+  }
+
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.get();
+  }
+
+  @Override
+  public long getBlocked() {
+    return blocked.get();
+  }
+
+  @Override
+  public long getHandleP99Micros() {
+    return handle.percentile(99);
+  }
+
+  @Override
+  public long getHandleMaxMicros() {
+    return handle.max();
+  }
+
+  @Override
+  public long getLatencyP50Micros() {
+    return latency.percentile(50);
+  }
+
+  @Override
+  public long getLatencyP99Micros() {
+    return latency.percentile(99);
+  }
+
+  @Override
+  public long getLatencyMaxMicros() {
+    return latency.max();
+  }
+
+  @Override
+  public double getMeanRequestBytes() {
+    return requestBytes.mean();
+  }
+
+  @Override
+  public double getMeanReplyBytes() {
+    return replyBytes.mean();
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+    .putNumber("count", count.get())
+    .putNumber("errors", errors.get())
+    .putNumber("blocked", blocked.get())
+    .putObject("handle", handle.toJson())
+    .putObject("latency", latency.toJson())
+    .putObject("requestBytes", requestBytes.toJson())
+    .putObject("replyBytes", replyBytes.toJson());
+  }
+}
@@ -0,0 +1,28 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+/**
+ * JMX view of the statistics of one event bus handler. Times are in microseconds, sizes in bytes.
+ */
+public interface HandlerStatsMBean {
+  String getAddress();
+
+  long getCount();
+
+  long getErrors();
+
+  long getBlocked();
+
+  long getHandleP99Micros();
+
+  long getHandleMaxMicros();
+
+  long getLatencyP50Micros();
+
+  long getLatencyP99Micros();
+
+  long getLatencyMaxMicros();
+
+  double getMeanRequestBytes();
+
+  double getMeanReplyBytes();
+}
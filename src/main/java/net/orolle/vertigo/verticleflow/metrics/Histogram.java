@@ -0,0 +1,110 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets, like an HDR histogram:
+ * values below 128 are counted exactly, larger ones in 64 buckets per power of two,
+ * which bounds the relative error of a percentile to about 1.6%.
+ * Recording is a few atomic increments and may happen from any thread.
+ */
+public class Histogram {
+  private static final int SUB_BITS = 6, SUB = 1 << SUB_BITS;
+  private static final int BUCKETS = (63 - SUB_BITS) * SUB + 2 * SUB;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+  public void record(long value) {
+    if(value < 0) {
+      value = 0;
+    }
+
+    counts.incrementAndGet(index(value));
+    total.incrementAndGet();
+    sum.addAndGet(value);
+
+    long m;
+    while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+      // retry
+    }
+  }
+
+  public long count() {
+    return total.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public double mean() {
+    long n = total.get();
+    return n == 0? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * @param p percentile between 0 and 100
+   * @return the lower bound of the bucket holding the percentile or 0 if nothing was recorded
+   */
+  public long percentile(double p) {
+    long n = total.get();
+    if(n == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if(seen >= rank) {
+        return Math.min(value(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    total.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * @return count, mean, max and the 50th, 90th and 99th percentile.
+   */
+  public JsonObject toJson() {
+    return new JsonObject()
+    .putNumber("count", count())
+    .putNumber("mean", mean())
+    .putNumber("p50", percentile(50))
+    .putNumber("p90", percentile(90))
+    .putNumber("p99", percentile(99))
+    .putNumber("max", max());
+  }
+
+  static int index(long value) {
+    if(value < 2 * SUB) {
+      return (int) value;
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return shift * SUB + (int) (value >>> shift);
+  }
+
+  static long value(int index) {
+    if(index < 2 * SUB) {
+      return index;
+    }
+
+    int shift = (index >> SUB_BITS) - 1;
+    return ((long) ((index & (SUB - 1)) + SUB)) << shift;
+  }
+}
@@ -0,0 +1,350 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Collects throughput, queue depth and latency of the components and connections of deployed networks.
+ * <p>
+ * By default every deployed component gets vertigo's event bus hook, see {@link #instrument(List)}, which publishes
+ * a <code>receive</code> and a <code>send</code> event for every message. Those count the messages processed by the
+ * component and, if all its connections leave one output port, the messages on its connections.
+ * The hook events carry neither latency nor queue depth.
+ * <p>
+ * Components which measure themselves publish reports to the collector address:
+ * <pre>
+ * {"network": "n", "component": "c", "count": 10, "latency": 1.5, "queue": 3}
+ * {"network": "n", "connection": {"source": "a", "port": "out", "target": "b", "targetPort": "in"}, "count": 10}
+ * </pre>
+ * with the number of messages (default 1), the processing latency in ms and the queue depth, the latter two optional.
+ * Several reports may be sent at once as <code>{"reports": [...]}</code>.
+ * Every bucket the metrics are published to <code>web.out.metrics.components</code> and <code>web.out.metrics.connections</code>
+ * and the latest ones can be queried on <code>web.in.metrics</code>. Published latencies are in microseconds.
+ */
+public class MetricsCollector {
+  public static final String EVENTBUS_HOOK = "net.kuujo.vertigo.hook.EventBusHook";
+  public static final String COMPONENTS = "web.out.metrics.components", CONNECTIONS = "web.out.metrics.connections";
+  public static final String QUERY = "web.in.metrics";
+
+  private final Vertx vertx;
+  private final String address;
+  private final long bucketMs;
+  private final int buckets;
+  private final JsonObject hook;
+  private final Map<String, Hooked> hooked = new HashMap<>();
+  private final Map<String, Handler<Message<JsonObject>>> listeners = new HashMap<>();
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> components = new ConcurrentHashMap<>(), connections = new ConcurrentHashMap<>();
+  private JsonObject last = new JsonObject();
+  private long timer = -1;
+
+  /**
+   * @param config <code>{"address": ..., "bucketMs": 1000, "buckets": 60, "instrument": true, "hook": {...}}</code>,
+   * the hook is added to every deployed component unless instrument is false, see {@link #instrument(List)}
+   */
+  public MetricsCollector(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.address = config.getString("address", "verticle.flow.metrics");
+    this.bucketMs = Math.max(100, config.getLong("bucketMs", 1000));
+    this.buckets = Math.max(2, config.getInteger("buckets", 60));
+    this.hook = config.getBoolean("instrument", true)? config.getObject("hook", new JsonObject().putString("type", EVENTBUS_HOOK)) : null;
+  }
+
+  public MetricsCollector start() {
+    vertx.eventBus().registerHandler(address, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> msg) {
+        JsonObject body = msg.body();
+        JsonArray reports = body.getArray("reports");
+
+        if(reports == null) {
+          report(body);
+        } else {
+          for (Object o : reports) {
+            if(o instanceof JsonObject) {
+              report((JsonObject) o);
+            }
+          }
+        }
+      }
+    });
+
+    vertx.eventBus().registerHandler(QUERY, new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> msg) {
+        msg.reply(last);
+      }
+    });
+
+    timer = vertx.setPeriodic(bucketMs, new Handler<Long>() {
+      @Override
+      public void handle(Long event) {
+        publish();
+      }
+    });
+
+    return this;
+  }
+
+  public void stop() {
+    if(timer != -1) {
+      vertx.cancelTimer(timer);
+    }
+    for (Map.Entry<String, Handler<Message<JsonObject>>> e : listeners.entrySet()) {
+      vertx.eventBus().unregisterHandler(e.getKey(), e.getValue());
+    }
+    listeners.clear();
+    hooked.clear();
+  }
+
+  /**
+   * @return the metrics of the last bucket, <code>{"time": ..., "bucketMs": ..., "components": {...}, "connections": {...}}</code>
+   * with the metrics by network and component or connection key.
+   */
+  public JsonObject latest() {
+    return last;
+  }
+
+  /**
+   * Adds the hook to every component of the networks, with the address <code>collector address.network.component</code>,
+   * and listens to the events published on it. Stops listening to the hooks of components which were removed from the networks.
+   * Must be called on the context which started the collector.
+   */
+  public void instrument(List<JsonObject> networks) {
+    if(hook == null) {
+      return;
+    }
+
+    for (JsonObject network : networks) {
+      String name = network.getString("name", "");
+      JsonObject comps = network.getObject("components", new JsonObject());
+      Map<String, List<String>> outputs = outputs(network);
+      unhook(name, comps);
+
+      for (String id : comps.getFieldNames()) {
+        JsonObject comp = comps.getObject(id);
+        JsonArray hooks = comp.getArray("hooks");
+        if(hooks == null) {
+          comp.putArray("hooks", hooks = new JsonArray());
+        }
+
+        String hookAddress = address+"."+name+"."+id;
+        JsonObject h = hook.copy().putString("address", hookAddress);
+        if(!contains(hooks, h)) {
+          hooks.addObject(h);
+        }
+
+        List<String> out = outputs.get(id);
+        hooked.put(hookAddress, new Hooked(name, id, out == null? new ArrayList<String>() : out));
+        listen(hookAddress);
+      }
+    }
+  }
+
+  /**
+   * Drops the hooked components of the network which are not among its components anymore.
+   */
+  private void unhook(String network, JsonObject components) {
+    Iterator<Map.Entry<String, Hooked>> it = hooked.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Hooked> e = it.next();
+      if(!e.getValue().network.equals(network) || components.getObject(e.getValue().component) != null) {
+        continue;
+      }
+
+      it.remove();
+      Handler<Message<JsonObject>> h = listeners.remove(e.getKey());
+      if(h != null) {
+        vertx.eventBus().unregisterHandler(e.getKey(), h);
+      }
+    }
+  }
+
+  private static boolean contains(JsonArray array, JsonObject json) {
+    for (Object o : array) {
+      if(json.equals(o)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the keys of the outgoing connections by component, for components whose connections all leave one port.
+   * A hook's send event does not tell the port, so it can only be counted for those.
+   */
+  private static Map<String, List<String>> outputs(JsonObject network) {
+    Map<String, Map<String, List<String>>> byPort = new HashMap<>();
+
+    for (Object o : network.getArray("connections", new JsonArray())) {
+      JsonObject source = ((JsonObject) o).getObject("source", new JsonObject());
+      JsonObject target = ((JsonObject) o).getObject("target", new JsonObject());
+      String component = source.getString("component"), port = source.getString("port", "out");
+
+      Map<String, List<String>> ports = byPort.get(component);
+      if(ports == null) {
+        byPort.put(component, ports = new HashMap<>());
+      }
+      List<String> keys = ports.get(port);
+      if(keys == null) {
+        ports.put(port, keys = new ArrayList<>());
+      }
+      keys.add(connectionKey(new JsonObject().putString("source", component).putString("port", port)
+          .putString("target", target.getString("component")).putString("targetPort", target.getString("port", "in"))));
+    }
+
+    Map<String, List<String>> res = new HashMap<>();
+    for (Map.Entry<String, Map<String, List<String>>> e : byPort.entrySet()) {
+      if(e.getValue().size() == 1) {
+        res.put(e.getKey(), e.getValue().values().iterator().next());
+      }
+    }
+    return res;
+  }
+
+  private void listen(final String hookAddress) {
+    if(listeners.containsKey(hookAddress)) {
+      return;
+    }
+
+    Handler<Message<JsonObject>> h = new Handler<Message<JsonObject>>() {
+      @Override
+      public void handle(Message<JsonObject> msg) {
+        hookEvent(hooked.get(hookAddress), msg.body());
+      }
+    };
+    listeners.put(hookAddress, h);
+    vertx.eventBus().registerHandler(hookAddress, h);
+  }
+
+  private void hookEvent(Hooked h, JsonObject event) {
+    if(h == null || event == null) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    switch (event.getString("event", "")) {
+    case "receive":
+      series(components, h.network, h.component).record(now, 1, -1, -1);
+      break;
+    case "send":
+      for (String key : h.outputs) {
+        series(connections, h.network, key).record(now, 1, -1, -1);
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /**
+   * Records a report, may be called from any thread.
+   */
+  public void report(JsonObject report) {
+    String network = report.getString("network", "");
+    Object connection = report.getValue("connection");
+    Object latency = report.getValue("latency");
+    Object queue = report.getValue("queue");
+
+    Series s;
+    if(connection instanceof JsonObject) {
+      s = series(connections, network, connectionKey((JsonObject) connection));
+    } else if(report.getString("component") != null) {
+      s = series(components, network, report.getString("component"));
+    } else {
+      return;
+    }
+
+    s.record(System.currentTimeMillis(), report.getLong("count", 1),
+        latency instanceof Number? Math.round(((Number) latency).doubleValue() * 1000) : -1,
+        queue instanceof Number? ((Number) queue).longValue() : -1);
+  }
+
+  /**
+   * @return <code>source:port-&gt;target:targetPort</code>
+   */
+  public static String connectionKey(JsonObject con) {
+    return con.getString("source")+":"+con.getString("port", "out")+"->"+con.getString("target")+":"+con.getString("targetPort", "in");
+  }
+
+  private Series series(ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> all, String network, String key) {
+    ConcurrentHashMap<String, Series> net = all.get(network);
+    if(net == null) {
+      all.putIfAbsent(network, new ConcurrentHashMap<String, Series>());
+      net = all.get(network);
+    }
+
+    Series s = net.get(key);
+    if(s == null) {
+      net.putIfAbsent(key, new Series(bucketMs, buckets));
+      s = net.get(key);
+    }
+    return s;
+  }
+
+  /**
+   * Rolls the latency windows and publishes the metrics per network.
+   * Series without reports for a whole window are dropped.
+   */
+  private void publish() {
+    long now = System.currentTimeMillis();
+    JsonObject comps = roll(components, now), cons = roll(connections, now);
+
+    last = new JsonObject().putNumber("time", now).putNumber("bucketMs", bucketMs)
+        .putObject("components", comps).putObject("connections", cons);
+
+    if(comps.size() > 0) {
+      vertx.eventBus().publish(COMPONENTS, new JsonObject().putNumber("time", now).putObject("networks", comps));
+    }
+    if(cons.size() > 0) {
+      vertx.eventBus().publish(CONNECTIONS, new JsonObject().putNumber("time", now).putObject("networks", cons));
+    }
+  }
+
+  private JsonObject roll(ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> all, long now) {
+    JsonObject res = new JsonObject();
+
+    for (Map.Entry<String, ConcurrentHashMap<String, Series>> net : all.entrySet()) {
+      JsonObject json = new JsonObject();
+
+      Iterator<Map.Entry<String, Series>> it = net.getValue().entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Series> e = it.next();
+        if(now - e.getValue().lastUpdate() > bucketMs * buckets) {
+          it.remove();
+        } else {
+          json.putObject(e.getKey(), e.getValue().roll(now));
+        }
+      }
+
+      if(json.size() > 0) {
+        res.putObject(net.getKey(), json);
+      }
+    }
+
+    return res;
+  }
+
+  /**
+   * A component with the hook, its outputs are the keys of the connections its send events are counted for.
+   */
+  private static class Hooked {
+    private final String network, component;
+    private final List<String> outputs;
+
+    private Hooked(String network, String component, List<String> outputs) {
+      this.network = network;
+      this.component = component;
+      this.outputs = outputs;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package net.orolle.vertigo.verticleflow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Metrics of one component or connection: message counts in a ring of time buckets,
+ * the last reported queue depth and a latency histogram of the current window.
+ * Queue depth and latency are left out of the report until they were recorded.
+ * Recording is lock-free; a sample racing with a bucket or window roll may be lost.
+ */
+public class Series {
+  private final long bucketMs;
+  private final AtomicLongArray counts, epochs;
+  private final AtomicLong queue = new AtomicLong(-1), lastUpdate = new AtomicLong();
+  private final AtomicReference<Histogram> latency = new AtomicReference<>(new Histogram());
+  private Histogram spare = new Histogram();
+
+  public Series(long bucketMs, int buckets) {
+    this.bucketMs = bucketMs;
+    this.counts = new AtomicLongArray(buckets);
+    this.epochs = new AtomicLongArray(buckets);
+  }
+
+  /**
+   * @param latencyMicros processing latency or a negative number if unknown
+   * @param queueDepth queue depth or a negative number if unknown
+   */
+  public void record(long now, long messages, long latencyMicros, long queueDepth) {
+    long epoch = now / bucketMs;
+    int slot = (int) (epoch % counts.length());
+
+    long e = epochs.get(slot);
+    if(e != epoch && epochs.compareAndSet(slot, e, epoch)) {
+      counts.set(slot, 0);
+    }
+    counts.addAndGet(slot, messages);
+
+    if(latencyMicros >= 0) {
+      latency.get().record(latencyMicros);
+    }
+    if(queueDepth >= 0) {
+      queue.set(queueDepth);
+    }
+    lastUpdate.set(now);
+  }
+
+  public long lastUpdate() {
+    return lastUpdate.get();
+  }
+
+  /**
+   * @return messages in the bucket before the current one, e.g. the last complete second.
+   */
+  public long lastBucket(long now) {
+    return count(now / bucketMs - 1);
+  }
+
+  /**
+   * @return messages of all complete buckets of the window.
+   */
+  public long window(long now) {
+    long res = 0;
+    long epoch = now / bucketMs;
+    for (int i = 1; i < counts.length(); i++) {
+      res += count(epoch - i);
+    }
+    return res;
+  }
+
+  private long count(long epoch) {
+    int slot = (int) (epoch % counts.length());
+    return epochs.get(slot) == epoch? counts.get(slot) : 0;
+  }
+
+  /**
+   * Reports the series and starts a new latency window. Call it from one thread only.
+   */
+  public JsonObject roll(long now) {
+    Histogram current = latency.getAndSet(spare);
+    JsonObject res = toJson(now, current);
+    current.reset();
+    spare = current;
+    return res;
+  }
+
+  private JsonObject toJson(long now, Histogram h) {
+    double windowSec = (counts.length() - 1) * bucketMs / 1000.0;
+
+    JsonObject res = new JsonObject()
+    .putNumber("rate", lastBucket(now) * 1000.0 / bucketMs)
+    .putNumber("avgRate", windowSec == 0? 0 : window(now) / windowSec);
+
+    if(queue.get() >= 0) {
+      res.putNumber("queue", queue.get());
+    }
+    if(h.count() > 0) {
+      res.putObject("latency", h.toJson());
+    }
+    return res;
+  }
+}
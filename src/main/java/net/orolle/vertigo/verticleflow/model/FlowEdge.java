@@ -0,0 +1,32 @@
+package net.orolle.vertigo.verticleflow.model;
+
+/**
+ * A wire from an output port of a node to an input port of another node.
+ */
+public final class FlowEdge {
+  private final FlowNode source, target;
+  private final String sourcePort, targetPort;
+
+  public FlowEdge(FlowNode source, String sourcePort, FlowNode target, String targetPort) {
+    this.source = source;
+    this.sourcePort = sourcePort;
+    this.target = target;
+    this.targetPort = targetPort;
+  }
+
+  public FlowNode source() {
+    return source;
+  }
+
+  public String sourcePort() {
+    return sourcePort;
+  }
+
+  public FlowNode target() {
+    return target;
+  }
+
+  public String targetPort() {
+    return targetPort;
+  }
+}
@@ -0,0 +1,122 @@
+package net.orolle.vertigo.verticleflow.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable flow: the nodes and wires of one Node-RED tab, respectively one vertigo network.
+ * Nodes keep the order in which they were added and can be looked up by id,
+ * wires can be looked up by their source and target node.
+ */
+public final class FlowGraph {
+  private final String id, name;
+  private final Map<String, FlowNode> nodes;
+  private final List<FlowEdge> edges;
+  private final Map<String, List<FlowEdge>> out, in;
+
+  private FlowGraph(String id, String name, Map<String, FlowNode> nodes, List<FlowEdge> edges) {
+    this.id = id;
+    this.name = name;
+    this.nodes = Collections.unmodifiableMap(nodes);
+    this.edges = Collections.unmodifiableList(edges);
+    this.out = new HashMap<>(nodes.size());
+    this.in = new HashMap<>(nodes.size());
+
+    for (String n : nodes.keySet()) {
+      out.put(n, new ArrayList<FlowEdge>(1));
+      in.put(n, new ArrayList<FlowEdge>(1));
+    }
+    for (FlowEdge e : edges) {
+      out.get(e.source().id()).add(e);
+      in.get(e.target().id()).add(e);
+    }
+  }
+
+  public String id() {
+    return id;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public Iterable<FlowNode> nodes() {
+    return nodes.values();
+  }
+
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * @return the node or null if there is no node with the id.
+   */
+  public FlowNode node(String id) {
+    return nodes.get(id);
+  }
+
+  public List<FlowEdge> edges() {
+    return edges;
+  }
+
+  public List<FlowEdge> outEdges(FlowNode n) {
+    return Collections.unmodifiableList(out.get(n.id()));
+  }
+
+  public List<FlowEdge> inEdges(FlowNode n) {
+    return Collections.unmodifiableList(in.get(n.id()));
+  }
+
+  /**
+   * @return a copy of this graph with the nodes replaced by the given nodes of the same id, e.g. moved ones.
+   */
+  public FlowGraph replace(Map<String, FlowNode> replaced) {
+    Builder b = new Builder(id, name);
+
+    for (FlowNode n : nodes.values()) {
+      b.node(replaced.containsKey(n.id())? replaced.get(n.id()) : n);
+    }
+    for (FlowEdge e : edges) {
+      b.edge(e.source().id(), e.sourcePort(), e.target().id(), e.targetPort());
+    }
+
+    return b.build();
+  }
+
+  public static class Builder {
+    private final String id, name;
+    private final Map<String, FlowNode> nodes = new LinkedHashMap<>();
+    private final List<FlowEdge> edges = new ArrayList<>();
+
+    public Builder(String id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    public Builder node(FlowNode n) {
+      nodes.put(n.id(), n);
+      return this;
+    }
+
+    /**
+     * Adds a wire between two added nodes. Wires to unknown nodes are ignored.
+     */
+    public Builder edge(String source, String sourcePort, String target, String targetPort) {
+      FlowNode s = nodes.get(source), t = nodes.get(target);
+
+      if(s != null && t != null) {
+        edges.add(new FlowEdge(s, sourcePort, t, targetPort));
+      }
+
+      return this;
+    }
+
+    public FlowGraph build() {
+      return new FlowGraph(id, name, new LinkedHashMap<>(nodes), new ArrayList<>(edges));
+    }
+  }
+}
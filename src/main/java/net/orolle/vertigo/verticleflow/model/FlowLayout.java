@@ -0,0 +1,254 @@
+package net.orolle.vertigo.verticleflow.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Layered (Sugiyama-style) layout of a flow, drawn from left to right:
+ * cycles are broken by reversing back edges, nodes are put on the layer of their longest path from a source,
+ * wires spanning several layers get a dummy node per layer and crossings are reduced by barycenter sweeps.
+ * Ties are always broken by the order of the nodes in the graph, so the same graph always gets the same layout.
+ * Runs in O(sweeps * (V + E') log V) with E' the wires including dummy segments.
+ */
+public class FlowLayout {
+  public static final double X0 = 120, Y0 = 60, LAYER_GAP = 200, ROW_GAP = 60;
+  private static final int SWEEPS = 8;
+
+  private final List<FlowNode> nodes = new ArrayList<>();
+  private final List<List<Integer>> up = new ArrayList<>(), down = new ArrayList<>();
+  private final List<Integer> layerOf = new ArrayList<>();
+  private final List<List<Integer>> layers = new ArrayList<>();
+  private int[] pos;
+  private double[] bary;
+
+  private FlowLayout(FlowGraph graph) {
+    for (FlowNode n : graph.nodes()) {
+      nodes.add(n);
+    }
+  }
+
+  /**
+   * @return a copy of the graph with every node positioned.
+   */
+  public static FlowGraph layout(FlowGraph graph) {
+    return new FlowLayout(graph).run(graph);
+  }
+
+  private FlowGraph run(FlowGraph graph) {
+    int n = nodes.size();
+    Map<String, Integer> index = new HashMap<>(n);
+    for (int i = 0; i < n; i++) {
+      index.put(nodes.get(i).id(), i);
+    }
+
+    List<List<Integer>> succ = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      succ.add(new ArrayList<Integer>(1));
+    }
+    Set<Long> seen = new HashSet<>();
+    for (FlowEdge e : graph.edges()) {
+      int s = index.get(e.source().id()), t = index.get(e.target().id());
+      if(s != t && seen.add(((long) s << 32) | t)) {
+        succ.get(s).add(t);
+      }
+    }
+
+    List<int[]> dag = acyclic(succ);
+    assignLayers(n, dag);
+    addSegments(dag);
+    order();
+
+    Map<String, FlowNode> placed = new HashMap<>(n);
+    int rows = 0;
+    for (List<Integer> layer : layers) {
+      rows = Math.max(rows, realCount(layer));
+    }
+    for (int l = 0; l < layers.size(); l++) {
+      List<Integer> layer = layers.get(l);
+      double top = Y0 + (rows - realCount(layer)) * ROW_GAP / 2;
+      int row = 0;
+
+      for (int v : layer) {
+        if(v < n) {
+          placed.put(nodes.get(v).id(), nodes.get(v).at(X0 + l * LAYER_GAP, top + row++ * ROW_GAP));
+        }
+      }
+    }
+
+    return graph.replace(placed);
+  }
+
+  private int realCount(List<Integer> layer) {
+    int res = 0;
+    for (int v : layer) {
+      res += v < nodes.size()? 1 : 0;
+    }
+    return res;
+  }
+
+  /**
+   * Depth first search in node order; wires back to a node on the search path are reversed.
+   */
+  private static List<int[]> acyclic(List<List<Integer>> succ) {
+    int n = succ.size();
+    List<int[]> res = new ArrayList<>();
+    byte[] state = new byte[n]; // 0 new, 1 on path, 2 done
+    int[] stack = new int[n], next = new int[n];
+
+    for (int root = 0; root < n; root++) {
+      if(state[root] != 0) {
+        continue;
+      }
+
+      int sp = 0;
+      stack[sp++] = root;
+      state[root] = 1;
+
+      while (sp > 0) {
+        int v = stack[sp-1];
+        if(next[v] < succ.get(v).size()) {
+          int w = succ.get(v).get(next[v]++);
+          if(state[w] == 1) {
+            res.add(new int[]{w, v});
+          } else {
+            res.add(new int[]{v, w});
+            if(state[w] == 0) {
+              state[w] = 1;
+              stack[sp++] = w;
+            }
+          }
+        } else {
+          state[v] = 2;
+          sp--;
+        }
+      }
+    }
+
+    return res;
+  }
+
+  /**
+   * Longest path layering in topological order.
+   */
+  private void assignLayers(int n, List<int[]> dag) {
+    int[] indeg = new int[n], layer = new int[n];
+    List<List<Integer>> succ = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      succ.add(new ArrayList<Integer>(1));
+    }
+    for (int[] e : dag) {
+      succ.get(e[0]).add(e[1]);
+      indeg[e[1]]++;
+    }
+
+    int[] queue = new int[n];
+    int head = 0, tail = 0;
+    for (int i = 0; i < n; i++) {
+      if(indeg[i] == 0) {
+        queue[tail++] = i;
+      }
+    }
+    while (head < tail) {
+      int v = queue[head++];
+      for (int w : succ.get(v)) {
+        layer[w] = Math.max(layer[w], layer[v] + 1);
+        if(--indeg[w] == 0) {
+          queue[tail++] = w;
+        }
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      add(layer[i]);
+    }
+  }
+
+  /**
+   * Links the nodes of adjacent layers, with a dummy node on every layer a wire passes.
+   */
+  private void addSegments(List<int[]> dag) {
+    for (int[] e : dag) {
+      int from = e[0];
+      for (int l = layerOf.get(e[0]) + 1; l < layerOf.get(e[1]); l++) {
+        int dummy = add(l);
+        link(from, dummy);
+        from = dummy;
+      }
+      link(from, e[1]);
+    }
+  }
+
+  private int add(int layer) {
+    int v = layerOf.size();
+    layerOf.add(layer);
+    up.add(new ArrayList<Integer>(1));
+    down.add(new ArrayList<Integer>(1));
+
+    while (layers.size() <= layer) {
+      layers.add(new ArrayList<Integer>());
+    }
+    layers.get(layer).add(v);
+
+    return v;
+  }
+
+  private void link(int a, int b) {
+    down.get(a).add(b);
+    up.get(b).add(a);
+  }
+
+  /**
+   * Alternating down and up sweeps, each sorting a layer by the barycenter of its neighbours on the previous layer.
+   */
+  private void order() {
+    pos = new int[layerOf.size()];
+    bary = new double[layerOf.size()];
+    for (List<Integer> layer : layers) {
+      renumber(layer);
+    }
+
+    for (int sweep = 0; sweep < SWEEPS; sweep++) {
+      boolean downwards = sweep % 2 == 0;
+      for (int i = 1; i < layers.size(); i++) {
+        int l = downwards? i : layers.size() - 1 - i;
+        sort(layers.get(l), downwards? up : down);
+      }
+    }
+  }
+
+  private void sort(List<Integer> layer, List<List<Integer>> neighbours) {
+    for (int v : layer) {
+      List<Integer> ns = neighbours.get(v);
+      if(ns.isEmpty()) {
+        bary[v] = pos[v];
+      } else {
+        double sum = 0;
+        for (int w : ns) {
+          sum += pos[w];
+        }
+        bary[v] = sum / ns.size();
+      }
+    }
+
+    Collections.sort(layer, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int c = Double.compare(bary[a], bary[b]);
+        return c != 0? c : Integer.compare(pos[a], pos[b]);
+      }
+    });
+    renumber(layer);
+  }
+
+  private void renumber(List<Integer> layer) {
+    for (int i = 0; i < layer.size(); i++) {
+      pos[layer.get(i)] = i;
+    }
+  }
+}
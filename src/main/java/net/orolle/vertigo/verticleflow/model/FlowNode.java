@@ -0,0 +1,152 @@
+package net.orolle.vertigo.verticleflow.model;
+
+import net.orolle.vertigo.verticleflow.VertigoComponent;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A component or grouping node of a flow.
+ * The module id is interned and the config is parsed once when the node is created.
+ * Nodes are immutable, the config object is copied when a node is created and when it is handed out.
+ */
+public final class FlowNode {
+  private final String id, moduleId, name;
+  private final JsonObject config;
+  private final int instances;
+  private final boolean grouping;
+  private final double x, y;
+
+  public FlowNode(String id, String moduleId, String name, JsonObject config, int instances, double x, double y) {
+    this.id = id;
+    this.moduleId = moduleId.intern();
+    this.name = name;
+    this.config = config.copy();
+    this.instances = instances;
+    this.grouping = VertigoComponent.isGrouping(this.moduleId);
+    this.x = x;
+    this.y = y;
+  }
+
+  /**
+   * Reads a Node-RED node. Its config is a string holding a JSON object, its instances a number or string.
+   */
+  public static FlowNode fromNodered(JsonObject json) {
+    String moduleId = json.getString("type", "");
+
+    return new FlowNode(json.getString("id"), moduleId, json.getString("name", moduleId),
+        parseConfig(json.getString("id"), json.getValue("config")), parseInstances(json.getValue("instances")),
+        number(json.getValue("x")), number(json.getValue("y")));
+  }
+
+  /**
+   * Reads a component of a vertigo network configuration.
+   */
+  public static FlowNode fromVertigo(String id, JsonObject component) {
+    return new FlowNode(id, component.getString("module", "DEFAULT"), component.getString("module", "DEFAULT"),
+        component.getObject("config", new JsonObject()), component.getInteger("instances", 1), 100, 100);
+  }
+
+  public String id() {
+    return id;
+  }
+
+  public String moduleId() {
+    return moduleId;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public JsonObject config() {
+    return config.copy();
+  }
+
+  public int instances() {
+    return instances;
+  }
+
+  public double x() {
+    return x;
+  }
+
+  public double y() {
+    return y;
+  }
+
+  public boolean isGrouping() {
+    return grouping;
+  }
+
+  public boolean isComponent() {
+    return !grouping;
+  }
+
+  /**
+   * @return a copy of this node at the given position.
+   */
+  public FlowNode at(double x, double y) {
+    return new FlowNode(id, moduleId, name, config, instances, x, y);
+  }
+
+  public JsonObject toVertigoJson() {
+    return new JsonObject()
+    .putString("name", id)
+    .putString("type", "module")
+    .putString("module", moduleId)
+    .putObject("config", config.copy())
+    .putNumber("instances", instances);
+  }
+
+  /**
+   * @return the Node-RED node without wires.
+   */
+  public JsonObject toNoderedJson(String tabId) {
+    return new JsonObject()
+    .putString("id", id)
+    .putString("type", moduleId)
+    .putString("name", name)
+    .putString("config", config.encodePrettily())
+    .putString("instances", instances+"")
+    .putObject("wires", new JsonObject())
+    .putString("z", tabId)
+    .putNumber("x", x)
+    .putNumber("y", y);
+  }
+
+  private static JsonObject parseConfig(String id, Object config) {
+    if (config instanceof JsonObject) {
+      return (JsonObject) config;
+    }
+    if (config == null || config.toString().trim().isEmpty()) {
+      return new JsonObject();
+    }
+
+    try {
+      return new JsonObject(config.toString());
+    } catch (RuntimeException e) {
+      System.out.println("Invalid config of node "+id+": "+e.getMessage());
+      return new JsonObject();
+    }
+  }
+
+  private static int parseInstances(Object number) {
+    if (number instanceof Number) {
+      return ((Number) number).intValue();
+    }
+    if (number == null) {
+      return 1;
+    }
+
+    try {
+      return Integer.parseInt(number.toString().trim());
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  private static double number(Object n) {
+    return n instanceof Number? ((Number) n).doubleValue() : 0;
+  }
+}
@@ -0,0 +1,274 @@
+package net.orolle.vertigo.verticleflow.translate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Static capacity analysis of a vertigo network as translated by {@link NoderedToVertigo}.
+ * The message rate of the source components, those without incoming connections, is propagated along the connections.
+ * Every connection carries all messages of its source port; <code>round-robin</code>, <code>fair</code>, <code>random</code>
+ * and <code>hash</code> share them among the target instances (hash assumes evenly spread keys), <code>all</code> sends them
+ * to every instance, so its load grows with the instances and so does the output of the target.
+ * <p>
+ * A component costs the mean latency measured by the metrics, else the cost profile declared in its mod.json:
+ * <pre>
+ * "vertigo": {"cost": {"msPerMessage": 2.5, "outputs": {"out": 2}, "rate": 100}}
+ * </pre>
+ * with the processing time per message, the messages emitted per processed message by port (default 1)
+ * and, for sources, the messages emitted per second and instance.
+ */
+public class CapacityAnalyzer {
+  private static final int CYCLE_ITERATIONS = 100;
+
+  private final Map<String, JsonObject> profiles;
+  private final JsonObject measured;
+  private final double maxUtilization;
+
+  /**
+   * @param profiles cost profiles by module id
+   * @param measured component metrics by network and component id as published by the metrics collector, may be empty
+   * @param maxUtilization utilization the needed instance counts are sized for, e.g. 0.8 to leave headroom
+   */
+  public CapacityAnalyzer(Map<String, JsonObject> profiles, JsonObject measured, double maxUtilization) {
+    this.profiles = profiles;
+    this.measured = measured;
+    this.maxUtilization = maxUtilization > 0? maxUtilization : 1;
+  }
+
+  /**
+   * @param rate messages per second emitted by every source component or 0 for their declared rates
+   * @return <code>{"name": ..., "rate": ..., "maxRate": ..., "sustainable": ..., "bottleneck": id, "warnings": [...],
+   * "components": {id: {"module", "instances", "rate", "perInstance", "costMs", "cost", "utilization", "needed"}}}</code>,
+   * with <code>needed</code> -1 if no instance count suffices
+   */
+  public JsonObject analyze(JsonObject network, double rate) {
+    String name = network.getString("name");
+    JsonObject comps = network.getObject("components", new JsonObject());
+    JsonObject metrics = measured.getObject(name, new JsonObject());
+    JsonArray warnings = new JsonArray();
+
+    Map<String, Component> components = new LinkedHashMap<>();
+    List<String> undeclared = new ArrayList<>();
+    for (String id : comps.getFieldNames()) {
+      Component c = new Component(id, comps.getObject(id), metrics.getObject(id));
+      components.put(id, c);
+      if(c.costSource.equals("unknown") && !undeclared.contains(c.module)) {
+        undeclared.add(c.module);
+      }
+    }
+    if(!undeclared.isEmpty()) {
+      warnings.addString("No cost known for "+undeclared);
+    }
+
+    for (Object o : network.getArray("connections", new JsonArray())) {
+      JsonObject con = (JsonObject) o;
+      Component source = components.get(con.getObject("source", new JsonObject()).getString("component"));
+      Component target = components.get(con.getObject("target", new JsonObject()).getString("component"));
+      if(source != null && target != null) {
+        Link l = new Link(source, con.getObject("source").getString("port", "out"),
+            "all".equals(con.getObject("selector", new JsonObject()).getString("type")));
+        target.in.add(l);
+        source.out.add(target);
+      }
+    }
+
+    double total = 0;
+    for (Component c : components.values()) {
+      if(c.in.isEmpty()) {
+        c.shared = rate > 0? rate : c.profile.containsField("rate")? c.profile.getNumber("rate").doubleValue() * c.instances : 1;
+        total += c.shared;
+      }
+    }
+
+    if(!propagate(components)) {
+      warnings.addString("A feedback loop amplifies its messages, the rates of its components grow without bound");
+    }
+
+    JsonObject res = new JsonObject();
+    Component bottleneck = null;
+    for (Component c : components.values()) {
+      res.putObject(c.id, c.toJson());
+      if(c.cost > 0 && (bottleneck == null || c.utilization() > bottleneck.utilization())) {
+        bottleneck = c;
+      }
+    }
+
+    double peak = bottleneck == null? 0 : bottleneck.utilization();
+    JsonObject report = new JsonObject()
+    .putString("name", name)
+    .putNumber("rate", total)
+    .putBoolean("sustainable", peak <= 1)
+    .putString("bottleneck", bottleneck == null? null : bottleneck.id)
+    .putObject("components", res)
+    .putArray("warnings", warnings);
+    if(peak > 0) {
+      // all rates are linear in the source rates
+      report.putNumber("maxRate", total / peak);
+    }
+
+    return report;
+  }
+
+  /**
+   * Sums the input rates in topological order; components on or behind a cycle are iterated until the rates settle.
+   *
+   * @return false if the rates did not settle
+   */
+  private static boolean propagate(Map<String, Component> components) {
+    Map<Component, Integer> indeg = new HashMap<>();
+    List<Component> order = new ArrayList<>();
+    for (Component c : components.values()) {
+      indeg.put(c, c.in.size());
+      if(c.in.isEmpty()) {
+        order.add(c);
+      }
+    }
+    for (int i = 0; i < order.size(); i++) {
+      for (Component t : order.get(i).out) {
+        if(indeg.put(t, indeg.get(t) - 1) == 1) {
+          order.add(t);
+        }
+      }
+    }
+
+    for (Component c : order) {
+      c.sum();
+    }
+    if(order.size() == components.size()) {
+      return true;
+    }
+
+    List<Component> rest = new ArrayList<>();
+    for (Component c : components.values()) {
+      if(indeg.get(c) > 0) {
+        rest.add(c);
+      }
+    }
+    for (int i = 0; i < CYCLE_ITERATIONS; i++) {
+      boolean settled = true;
+      for (Component c : rest) {
+        double before = c.processed();
+        c.sum();
+        settled &= Math.abs(c.processed() - before) <= 1e-9 * Math.max(1, before);
+      }
+      if(settled) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private class Component {
+    private final String id, module, costSource;
+    private final int instances;
+    private final JsonObject profile;
+    /** Seconds per message. */
+    private final double cost;
+    private final List<Link> in = new ArrayList<>();
+    private final List<Component> out = new ArrayList<>();
+    /** Messages per second shared among the instances and sent to each instance. */
+    private double shared = 0, broadcast = 0;
+
+    private Component(String id, JsonObject config, JsonObject metrics) {
+      this.id = id;
+      this.module = config.getString("module", config.getString("main", ""));
+      this.instances = Math.max(1, config.getInteger("instances", 1));
+      JsonObject profile = profiles.get(module);
+      this.profile = profile == null? new JsonObject() : profile;
+
+      JsonObject latency = metrics == null? null : metrics.getObject("latency");
+      if(latency != null && latency.getLong("count", 0) > 0) {
+        cost = latency.getNumber("mean").doubleValue() / 1e6;
+        costSource = "measured";
+      } else if(this.profile.containsField("msPerMessage")) {
+        cost = this.profile.getNumber("msPerMessage").doubleValue() / 1e3;
+        costSource = "declared";
+      } else {
+        cost = 0;
+        costSource = "unknown";
+      }
+    }
+
+    private void sum() {
+      if(in.isEmpty()) {
+        return;
+      }
+
+      shared = 0;
+      broadcast = 0;
+      for (Link l : in) {
+        double r = l.source.emitted(l.port);
+        if(l.all) {
+          broadcast += r;
+        } else {
+          shared += r;
+        }
+      }
+    }
+
+    /**
+     * @return messages processed per second by all instances.
+     */
+    private double processed() {
+      return shared + broadcast * instances;
+    }
+
+    private double emitted(String port) {
+      Object ratio = profile.getObject("outputs", new JsonObject()).getValue(port);
+      return processed() * (ratio instanceof Number? ((Number) ratio).doubleValue() : 1);
+    }
+
+    private double perInstance() {
+      return shared / instances + broadcast;
+    }
+
+    private double utilization() {
+      return perInstance() * cost;
+    }
+
+    /**
+     * Solves <code>(shared / n + broadcast) * cost &lt;= maxUtilization</code> for n.
+     */
+    private int needed() {
+      if(cost == 0) {
+        return instances;
+      }
+      double left = maxUtilization - broadcast * cost;
+      if(left <= 0) {
+        return -1;
+      }
+      return (int) Math.max(1, Math.ceil(shared * cost / left - 1e-9));
+    }
+
+    private JsonObject toJson() {
+      return new JsonObject()
+      .putString("module", module)
+      .putNumber("instances", instances)
+      .putNumber("rate", processed())
+      .putNumber("perInstance", perInstance())
+      .putNumber("costMs", cost * 1e3)
+      .putString("cost", costSource)
+      .putNumber("utilization", utilization())
+      .putNumber("needed", needed());
+    }
+  }
+
+  private static class Link {
+    private final Component source;
+    private final String port;
+    private final boolean all;
+
+    private Link(Component source, String port, boolean all) {
+      this.source = source;
+      this.port = port;
+      this.all = all;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package net.orolle.vertigo.verticleflow.translate;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.vertx.java.core.json.DecodeException;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Event based reader of the Node-RED flow format, a JSON array of tabs and nodes.
+ * The document is parsed token by token; only one node is materialized at a time and handed to the listener,
+ * so neither the whole document nor a string copy of it is kept in memory.
+ */
+public class FlowReader {
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  public interface Listener {
+    /**
+     * A tab, which becomes a network.
+     */
+    void tab(String id, String label);
+
+    /**
+     * A node of the tab <code>z</code>. Tabs may be listed after their nodes.
+     */
+    void node(String z, JsonObject node);
+  }
+
+  /**
+   * Streams the flow document to the listener.
+   *
+   * @throws DecodeException if the document is no JSON array
+   */
+  public static void read(InputStream in, Listener listener) throws IOException {
+    try (JsonParser p = FACTORY.createParser(in)) {
+      if(p.nextToken() != JsonToken.START_ARRAY) {
+        throw new DecodeException("Flow is no JSON array");
+      }
+
+      JsonToken t;
+      while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+        if(t == null) {
+          throw new DecodeException("Unexpected end of flow");
+        }
+
+        if(t == JsonToken.START_OBJECT) {
+          dispatch(readObject(p), listener);
+        } else {
+          p.skipChildren();
+        }
+      }
+    }
+  }
+
+  /**
+   * Feeds an already parsed flow to the listener.
+   */
+  public static void read(JsonArray flow, Listener listener) {
+    for (Object o : flow) {
+      if (o instanceof JsonObject) {
+        dispatch((JsonObject) o, listener);
+      }
+    }
+  }
+
+  private static void dispatch(JsonObject json, Listener listener) {
+    String type = json.getString("type", "");
+
+    if(type.equals("tab")) {
+      listener.tab(json.getString("id"), json.getString("label"));
+    } else if (!type.equals("")) {
+      listener.node(json.getString("z", ""), json);
+    }
+  }
+
+  private static JsonObject readObject(JsonParser p) throws IOException {
+    JsonObject res = new JsonObject();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      res.putValue(field, readValue(p, p.nextToken()));
+    }
+
+    return res;
+  }
+
+  private static JsonArray readArray(JsonParser p) throws IOException {
+    JsonArray res = new JsonArray();
+
+    JsonToken t;
+    while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+      res.add(readValue(p, t));
+    }
+
+    return res;
+  }
+
+  private static Object readValue(JsonParser p, JsonToken t) throws IOException {
+    if(t == null) {
+      throw new DecodeException("Unexpected end of flow");
+    }
+
+    switch (t) {
+    case START_OBJECT:
+      return readObject(p);
+    case START_ARRAY:
+      return readArray(p);
+    case VALUE_STRING:
+      return p.getText();
+    case VALUE_NUMBER_INT:
+    case VALUE_NUMBER_FLOAT:
+      switch (p.getNumberType()) {
+      case BIG_INTEGER:
+      case BIG_DECIMAL:
+        return p.getDoubleValue();
+      default:
+        return p.getNumberValue();
+      }
+    case VALUE_TRUE:
+      return Boolean.TRUE;
+    case VALUE_FALSE:
+      return Boolean.FALSE;
+    case VALUE_NULL:
+      return null;
+    default:
+      throw new DecodeException("Unexpected token "+t);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package net.orolle.vertigo.verticleflow.translate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.orolle.vertigo.verticleflow.model.FlowEdge;
+import net.orolle.vertigo.verticleflow.model.FlowGraph;
+import net.orolle.vertigo.verticleflow.model.FlowNode;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Optional pass over a network translated by {@link NoderedToVertigo} which co-locates fusible chains:
+ * maximal runs of single instance components whose modules declare <code>"vertigo": {"fusible": true}</code>,
+ * each linked to the next by its only outgoing and the next one's only incoming wire, a direct wire.
+ * Wires are looked up in the flow of the network, where a grouping node the user placed between two components
+ * is still visible and ends a chain, even though its connection may have the same selector as a direct wire.
+ * All components of a chain are deployed to one vertigo deployment group, the one of the chain's first component
+ * or else the configured fusion group, so their messages stay on the local event bus of the nodes of that group.
+ */
+public class FusionPass {
+  private final Set<String> fusible;
+  private final String group;
+
+  /**
+   * @param fusible module ids of the fusible components
+   * @param group deployment group of chains whose first component names none
+   */
+  public FusionPass(Set<String> fusible, String group) {
+    this.fusible = fusible;
+    this.group = group;
+  }
+
+  /**
+   * Puts the components of every fusible chain of the network into the chain's group.
+   *
+   * @param flow the flow the network was translated from
+   * @return the chains, each the ids of its components in message order
+   */
+  public JsonArray fuse(FlowGraph flow, JsonObject network) {
+    JsonObject components = network.getObject("components", new JsonObject());
+
+    // next component in a chain by component
+    Map<String, String> next = new HashMap<>();
+    Map<String, String> previous = new HashMap<>();
+    for (FlowNode source : flow.nodes()) {
+      List<FlowEdge> out = flow.outEdges(source);
+      if(!source.isComponent() || out.size() != 1 || !isFusible(components.getObject(source.id()))) {
+        continue;
+      }
+
+      FlowNode target = out.get(0).target();
+      if(target.isComponent() && target != source && flow.inEdges(target).size() == 1 && isFusible(components.getObject(target.id()))) {
+        next.put(source.id(), target.id());
+        previous.put(target.id(), source.id());
+      }
+    }
+
+    JsonArray res = new JsonArray();
+    for (String head : components.getFieldNames()) {
+      if(!next.containsKey(head) || previous.containsKey(head)) {
+        continue;
+      }
+
+      String chainGroup = components.getObject(head).getString("group", group);
+      JsonArray chain = new JsonArray();
+      for (String id = head; id != null; id = next.get(id)) {
+        components.getObject(id).putString("group", chainGroup);
+        chain.addString(id);
+      }
+      res.addArray(chain);
+    }
+
+    return res;
+  }
+
+  private boolean isFusible(JsonObject component) {
+    return component != null && component.getInteger("instances", 1) == 1 && fusible.contains(component.getString("module"));
+  }
+}
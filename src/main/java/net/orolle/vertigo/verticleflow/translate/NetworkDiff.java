@@ -0,0 +1,165 @@
+package net.orolle.vertigo.verticleflow.translate;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Difference between an active and a new configuration of a vertigo network, expressed as two partial networks:
+ * the components and connections to undeploy and the ones to deploy afterwards.
+ * A reconfigured component is undeployed and deployed again, together with its connections.
+ */
+public class NetworkDiff {
+  private final JsonObject removed, added;
+
+  /**
+   * @param active the configuration of the running network or null if it is not running
+   * @param target the new configuration of the network
+   */
+  public NetworkDiff(JsonObject active, JsonObject target) {
+    String name = target.getString("name");
+    this.removed = emptyNetwork(name);
+    this.added = emptyNetwork(name);
+
+    JsonObject oldComponents = active == null? new JsonObject() : active.getObject("components", new JsonObject());
+    JsonObject newComponents = target.getObject("components", new JsonObject());
+    Set<String> restarted = new HashSet<>();
+
+    for (String id : oldComponents.getFieldNames()) {
+      JsonObject now = newComponents.getObject(id);
+      if(now == null || !matches(now, oldComponents.getObject(id))) {
+        removed.getObject("components").putObject(id, oldComponents.getObject(id));
+        restarted.add(id);
+      }
+    }
+
+    for (String id : newComponents.getFieldNames()) {
+      JsonObject before = oldComponents.getObject(id);
+      if(before == null || !matches(newComponents.getObject(id), before)) {
+        added.getObject("components").putObject(id, newComponents.getObject(id));
+        restarted.add(id);
+      }
+    }
+
+    Map<String, JsonObject> oldConnections = connections(active == null? new JsonArray() : active.getArray("connections", new JsonArray()));
+    Map<String, JsonObject> newConnections = connections(target.getArray("connections", new JsonArray()));
+
+    for (Map.Entry<String, JsonObject> e : oldConnections.entrySet()) {
+      if(!newConnections.containsKey(e.getKey()) || touches(e.getValue(), restarted)) {
+        removed.getArray("connections").addObject(e.getValue());
+      }
+    }
+
+    for (Map.Entry<String, JsonObject> e : newConnections.entrySet()) {
+      if(!oldConnections.containsKey(e.getKey()) || touches(e.getValue(), restarted)) {
+        added.getArray("connections").addObject(e.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return partial network of the components and connections to undeploy.
+   */
+  public JsonObject removed() {
+    return removed;
+  }
+
+  /**
+   * @return partial network of the components and connections to deploy.
+   */
+  public JsonObject added() {
+    return added;
+  }
+
+  public boolean isEmpty() {
+    return isEmpty(removed) && isEmpty(added);
+  }
+
+  public static boolean isEmpty(JsonObject partial) {
+    return partial.getObject("components").size() == 0 && partial.getArray("connections").size() == 0;
+  }
+
+  public JsonObject summary() {
+    return new JsonObject()
+    .putNumber("removedComponents", removed.getObject("components").size())
+    .putNumber("removedConnections", removed.getArray("connections").size())
+    .putNumber("addedComponents", added.getObject("components").size())
+    .putNumber("addedConnections", added.getArray("connections").size());
+  }
+
+  private static JsonObject emptyNetwork(String name) {
+    return new JsonObject().putString("name", name)
+        .putObject("components", new JsonObject()).putArray("connections", new JsonArray());
+  }
+
+  private static Map<String, JsonObject> connections(JsonArray connections) {
+    Map<String, JsonObject> res = new LinkedHashMap<>();
+
+    for (Object o : connections) {
+      if (o instanceof JsonObject) {
+        JsonObject con = (JsonObject) o;
+        res.put(key(con), con);
+      }
+    }
+
+    return res;
+  }
+
+  private static String key(JsonObject con) {
+    JsonObject source = con.getObject("source", new JsonObject());
+    JsonObject target = con.getObject("target", new JsonObject());
+
+    return source.getString("component")+"\u0000"+source.getString("port")+"\u0000"+
+        target.getString("component")+"\u0000"+target.getString("port")+"\u0000"+
+        canonical(con.getObject("selector", new JsonObject()));
+  }
+
+  /**
+   * @return true if every field of the configured component has the same value in the active one.
+   * The active configuration may hold additional fields filled with defaults by vertigo.
+   */
+  private static boolean matches(JsonObject configured, JsonObject active) {
+    for (String field : configured.getFieldNames()) {
+      if(!sameValue(configured.getValue(field), active.getValue(field))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean sameValue(Object a, Object b) {
+    if(a instanceof Number && b instanceof Number) {
+      return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+    }
+    if(a instanceof JsonObject && b instanceof JsonObject) {
+      return canonical((JsonObject) a).equals(canonical((JsonObject) b));
+    }
+
+    return a == null? b == null : a.equals(b);
+  }
+
+  /**
+   * @return the object encoded with sorted field names.
+   */
+  private static String canonical(JsonObject json) {
+    StringBuilder res = new StringBuilder("{");
+
+    for (String field : new TreeSet<>(json.getFieldNames())) {
+      Object v = json.getValue(field);
+      res.append(field).append(':').append(v instanceof JsonObject? canonical((JsonObject) v) : String.valueOf(v)).append(',');
+    }
+
+    return res.append('}').toString();
+  }
+
+  private static boolean touches(JsonObject con, Set<String> components) {
+    return components.contains(con.getObject("source", new JsonObject()).getString("component")) ||
+        components.contains(con.getObject("target", new JsonObject()).getString("component"));
+  }
+}
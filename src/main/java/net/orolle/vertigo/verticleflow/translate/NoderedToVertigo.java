@@ -1,268 +1,294 @@
 package net.orolle.vertigo.verticleflow.translate;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.RecursiveTask;
 
-import net.orolle.vertigo.verticleflow.VertigoComponent;
+import io.netty.buffer.ByteBufInputStream;
 
+import net.orolle.vertigo.verticleflow.model.FlowEdge;
+import net.orolle.vertigo.verticleflow.model.FlowGraph;
+import net.orolle.vertigo.verticleflow.model.FlowNode;
+import net.orolle.vertigo.verticleflow.util.Background;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.DecodeException;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 
-class JgComponent extends JsonObject {
-  private static final long serialVersionUID = -5399946357927608789L;
-  private final List<JgConnection> out = new ArrayList<>();
-  private final List<JgConnection> in  = new ArrayList<>();
-
-  public JgComponent(JsonObject json) {
-    this.mergeIn(json);
-  }
-
-  public String moduleId() {
-    return this.getString("type");
-  }
-  
-  public String instanceId() {
-    return this.getString("id");
-  }
-
-  public int instances() {
-    return this.getInteger("instances", 1);
-  }
-
-  public JsonObject config() {
-    return new JsonObject(this.getString("config", "{}"));
-  }
-
-  public List<JgConnection> outConnections() {
-    return out;
-  }
-  
-  public JgComponent addOutConnection(JgConnection con) {
-    if(con.getV1() == this) {
-      this.out.add(con);
-      return this;
-    }
-    
-    throw new IllegalStateException("Not an out connection of this object.");
-  }
-  
-  public List<JgConnection> inConnections() {
-    return in;
-  }
-  
-  public JgComponent addInConnection(JgConnection con) {
-    if(con.getV2() == this) {
-      this.in.add(con);
-      return this;
-    }
-    
-    throw new IllegalStateException("Not an out connection of this object.");
-  }
-
-  public boolean isGrouping() {
-    return VertigoComponent.isGrouping(this.getString("type"));
-  }
-  
-  public boolean isComponent() {
-    return !isGrouping();
-  }
-
-  public JsonObject toVertigoJson() {
-    return new JsonObject()
-    .putString("name", instanceId())
-    .putString("type", "module")
-    .putString("module", moduleId())
-    .putElement("config", config())
-    .putNumber("instances", instances());
-  }
-}
-
-class JgConnection {
-  private final JgComponent v1, v2;
-  private final String port1, port2;
-  
-  public JgConnection(JgComponent v1, String port1, JgComponent v2, String port2) {
-    super();
-    this.v1 = v1;
-    this.v2 = v2;
-    this.port1 = port1;
-    this.port2 = port2;
-  }
-
-  public JgComponent getV1() {
-    return v1;
-  }
-
-  public JgComponent getV2() {
-    return v2;
-  }
-
-  public String getV1Port() {
-    return port1;
-  }
-
-  public String getV2Port() {
-    return port2;
-  }
-}
-
 class Translator {
-  private final HashMap<String, JgComponent> components;
-  private final HashSet<Integer> blacklist;
+  private final FlowGraph graph;
+  private final HashSet<Edge> edges;
   private final JsonObject network;
 
-  public Translator(String name, List<JsonObject> flowNodes){
-    this.components = new HashMap<>(flowNodes.size());
-    this.blacklist = new HashSet<>(flowNodes.size());
-    this.network = new JsonObject().putString("name", name) //.putString("cluster", "verticle.flow")
+  public Translator(FlowGraph graph){
+    this.graph = graph;
+    this.edges = new HashSet<>(graph.size());
+    this.network = new JsonObject().putString("name", graph.name()) //.putString("cluster", "verticle.flow")
         .putObject("components", new JsonObject()).putArray("connections", new JsonArray());
-    
-    build(flowNodes);
   }
   
-  private void build(List<JsonObject> flowNodes) {
+  /**
+   * Reads the Node-RED nodes of one tab into a graph.
+   */
+  public static FlowGraph build(String id, String name, List<JsonObject> flowNodes) {
+    FlowGraph.Builder b = new FlowGraph.Builder(id, name);
+    
     for (JsonObject json : flowNodes) {
-      components.put(json.getString("id"), new JgComponent(json));
+      b.node(FlowNode.fromNodered(json));
     }
     
     for (JsonObject json : flowNodes) {
-      JgComponent sourceNode = components.get(json.getString("id"));
+      JsonObject wires = json.getObject("wires", new JsonObject());
       
-      for (String sourcePort : sourceNode.getObject("wires").getFieldNames()) {
-        for (Object o : sourceNode.getObject("wires").getArray(sourcePort)) {
+      for (String sourcePort : wires.getFieldNames()) {
+        for (Object o : wires.getArray(sourcePort)) {
           if (o instanceof JsonObject) {
             JsonObject tgt = (JsonObject) o;
-            String targetPort = tgt.getString("port");
-            JgComponent targetNode = components.get(tgt.getString("node"));
-            JgConnection con = new JgConnection(sourceNode, sourcePort, targetNode, targetPort);
-            
-            sourceNode.addOutConnection(con);
-            targetNode.addInConnection(con);
+            b.edge(json.getString("id"), sourcePort, tgt.getString("node"), tgt.getString("port"));
           }
         }
       }
     }
+    
+    return b.build();
   }
   
+  /**
+   * Resolves every component -> component wire into a connection with the default selector
+   * and every component -> grouping -> component path into a connection with the grouping's selector.
+   * Each wire is looked at once per adjacent wire, so cycles and feedback loops need no special care.
+   */
   public JsonObject translate(){
-    for (JgComponent c : components.values()) {
+    for (FlowNode c : graph.nodes()) {
       if(c.isComponent())
-        network.getObject("components").putObject(c.instanceId(), c.toVertigoJson());
+        network.getObject("components").putObject(c.id(), c.toVertigoJson());
     }
     
-    for (JgComponent feeder : inDegree0()) {
-      for (JgConnection con : feeder.outConnections()) {
-        LinkedList<JgConnection> queue = new LinkedList<>();
-        queue.add(con);
-        traverse(queue);
+    for (FlowNode source : graph.nodes()) {
+      if(!source.isComponent())
+        continue;
+      
+      for (FlowEdge con : graph.outEdges(source)) {
+        FlowNode next = con.target();
+        
+        if(next.isComponent()) {
+          connect(source, con.sourcePort(), next, con.targetPort(), "fair");
+        } else {
+          for (FlowEdge grouped : graph.outEdges(next)) {
+            if(grouped.target().isComponent()) {
+              connect(source, con.sourcePort(), grouped.target(), grouped.targetPort(), next.moduleId());
+            }
+          }
+        }
       }
     }
     
     return network;
   }
 
-  private List<JgComponent> inDegree0() {
-    List<JgComponent> feeder = new ArrayList<>();
-    
-    for (Entry<String, JgComponent> e : this.components.entrySet()) {
-      if(e.getValue().inConnections().size() == 0) {
-        feeder.add(e.getValue());
-      }
-    }
+  private void connect(FlowNode source, String sourcePort, FlowNode target, String targetPort, String selector) {
+    if(!edges.add(new Edge(source.id(), sourcePort, target.id(), targetPort, selector)))
+      return;
     
-    return feeder;
+    network.getArray("connections").add(new JsonObject()
+    .putObject("source", new JsonObject().putString("component", source.id()).putString("port", sourcePort))
+    .putObject("target", new JsonObject().putString("component", target.id()).putString("port", targetPort))
+    .putObject("selector", new JsonObject().putString("type", selector)));
   }
-
-  private void traverse(LinkedList<JgConnection> queue) {
-    if(queue.isEmpty())
-      return;
-
-    // first element in queue is second element of Grouping connection. Queue: b -> c, a -> b
-    JgConnection first   = queue.size() >= 2? queue.get(1) : null;
-    JgConnection mid = queue.get(0);
+  
+  private static final class Edge {
+    private final String source, sourcePort, target, targetPort, selector;
     
-    if(mid != null && mid.getV1().isComponent() && mid.getV2().isComponent()){
-      JsonObject con = new JsonObject()
-      .putObject("source", new JsonObject().putString("component", mid.getV1().instanceId()).putString("port", mid.getV1Port()))
-      .putObject("target", new JsonObject().putString("component", mid.getV2().instanceId()).putString("port", mid.getV2Port()))
-      .putObject("selector", new JsonObject().putString("type", "fair"));
-      
-      if(!blacklist.contains(con.toString().hashCode())){
-        network.getArray("connections").add(con);
-        blacklist.add(con.toString().hashCode());
-      }
-    }else if(mid != null && first != null && 
-        first.getV1().isComponent() && first.getV2().isGrouping() &&
-        mid.getV1().isGrouping() && mid.getV2().isComponent()){
-      
-      JsonObject con = new JsonObject()
-      .putObject("source", new JsonObject().putString("component", first.getV1().instanceId()).putString("port", first.getV1Port()))
-      .putObject("target", new JsonObject().putString("component", mid.getV2().instanceId()).putString("port", mid.getV2Port()))
-      .putObject("selector", new JsonObject().putString("type", first.getV2().moduleId()));
+    private Edge(String source, String sourcePort, String target, String targetPort, String selector) {
+      this.source = source;
+      this.sourcePort = sourcePort;
+      this.target = target;
+      this.targetPort = targetPort;
+      this.selector = selector;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Edge))
+        return false;
       
-      if(!blacklist.contains(con.toString().hashCode())){
-        network.getArray("connections").add(con);
-        blacklist.add(con.toString().hashCode());
-      }
+      Edge e = (Edge) obj;
+      return Objects.equals(source, e.source) && Objects.equals(sourcePort, e.sourcePort) &&
+          Objects.equals(target, e.target) && Objects.equals(targetPort, e.targetPort) &&
+          Objects.equals(selector, e.selector);
     }
-
-    for (JgConnection con : mid.getV2().outConnections()) {
-      queue.push(con);
-      traverse(queue);
-      queue.pop();
+    
+    @Override
+    public int hashCode() {
+      return Objects.hash(source, sourcePort, target, targetPort, selector);
     }
   }
 }
 
 public class NoderedToVertigo {
+  private final List<FlowGraph> graphs = new ArrayList<>();
   private final List<JsonObject> vertigoNetworks = new ArrayList<>();
   
   public NoderedToVertigo(JsonArray flow) {
     super();
-    HashMap<String, String> netNames = new HashMap<>();
-    HashMap<String, List<JsonObject>> netNodes = new HashMap<>();
     
-    for (Object o : flow) {
-      if (o instanceof JsonObject) {
-        JsonObject json = (JsonObject) o;
-        
-        if(json.getString("type", "").equals("tab")) {
-          netNames.put(json.getString("id"), json.getString("label"));
-          
-        } else if (!json.getString("type", "").equals("")) {
-          if(netNodes.get(json.getString("z", "")) == null) {
-            netNodes.put(json.getString("z", ""), new ArrayList<JsonObject>());
-          }
-          
-          Object number = json.getValue("instances");
-          if (number instanceof String) {
-            int i = 1;
-            try {
-              i = Integer.parseInt(number.toString());
-            } catch (Exception e) { 
-              e.printStackTrace();
-            }
-            json.putNumber("instances", i);
-          }
-          
-          netNodes.get(json.getString("z", "")).add(json);
-        }
+    for (Tab tab : tabs(flow)) {
+      FlowGraph graph = tab.build();
+      graphs.add(graph);
+      vertigoNetworks.add(new Translator(graph).translate());
+    }
+  }
+  
+  private NoderedToVertigo(List<TabTask> translated) {
+    for (TabTask t : translated) {
+      graphs.add(t.graph);
+      vertigoNetworks.add(t.getRawResult());
+    }
+  }
+  
+  /**
+   * Translates the flow on the worker pool, each tab in parallel.
+   * The networks keep the order of the tabs, the result is delivered on the caller's context.
+   */
+  public static void translate(Vertx vertx, Background workers, final JsonArray flow, Handler<AsyncResult<NoderedToVertigo>> done) {
+    workers.run(vertx, new TranslateTask() {
+      private static final long serialVersionUID = -4170883123496880451L;
+
+      @Override
+      protected void read(TabCollector tabs) {
+        FlowReader.read(flow, tabs);
+      }
+    }, done);
+  }
+  
+  /**
+   * Like {@link #translate(Vertx, Background, JsonArray, Handler)}, but streams the flow from its raw JSON document.
+   */
+  public static void translate(Vertx vertx, Background workers, final Buffer flow, Handler<AsyncResult<NoderedToVertigo>> done) {
+    workers.run(vertx, new TranslateTask() {
+      private static final long serialVersionUID = 3957734165431484418L;
+
+      @Override
+      protected void read(TabCollector tabs) throws IOException {
+        FlowReader.read(new ByteBufInputStream(flow.getByteBuf().duplicate()), tabs);
+      }
+    }, done);
+  }
+  
+  private static List<Tab> tabs(JsonArray flow) {
+    TabCollector tabs = new TabCollector();
+    FlowReader.read(flow, tabs);
+    return tabs.tabs();
+  }
+  
+  /**
+   * @return the flow of each tab, in the order of the tabs.
+   */
+  public List<FlowGraph> graphs() {
+    return graphs;
+  }
+  
+  public List<JsonObject> translate() {
+    return vertigoNetworks;
+  }
+  
+  /**
+   * Groups the Node-RED nodes by their tab.
+   */
+  private static class TabCollector implements FlowReader.Listener {
+    private final LinkedHashMap<String, String> netNames = new LinkedHashMap<>();
+    private final LinkedHashMap<String, List<JsonObject>> netNodes = new LinkedHashMap<>();
+    
+    @Override
+    public void tab(String id, String label) {
+      netNames.put(id, label);
+    }
+    
+    @Override
+    public void node(String z, JsonObject node) {
+      if(netNodes.get(z) == null) {
+        netNodes.put(z, new ArrayList<JsonObject>());
       }
+      
+      netNodes.get(z).add(node);
     }
     
-    for(Entry<String, String> e : netNames.entrySet()) {
-      String netId = e.getKey();
-      String netName = e.getValue();
+    private List<Tab> tabs() {
+      List<Tab> tabs = new ArrayList<>(netNames.size());
+      for(Entry<String, String> e : netNames.entrySet()) {
+        String netId = e.getKey();
+        List<JsonObject> nodes = netNodes.containsKey(netId)? netNodes.get(netId) : new ArrayList<JsonObject>();
+        tabs.add(new Tab(netId, e.getValue(), nodes));
+      }
       
-      vertigoNetworks.add(new Translator(netName, netNodes.get(netId)).translate());
+      return tabs;
     }
   }
   
-  public List<JsonObject> translate() {
-    return vertigoNetworks;
+  /**
+   * Reads the flow and translates its tabs as parallel sub tasks.
+   */
+  private static abstract class TranslateTask extends RecursiveTask<NoderedToVertigo> {
+    private static final long serialVersionUID = -3020414374916435113L;
+
+    protected abstract void read(TabCollector tabs) throws IOException;
+    
+    @Override
+    protected NoderedToVertigo compute() {
+      TabCollector collector = new TabCollector();
+      try {
+        read(collector);
+      } catch (IOException e) {
+        throw new DecodeException("Could not read flow: "+e.getMessage());
+      }
+      
+      List<TabTask> tasks = new ArrayList<>();
+      for (Tab tab : collector.tabs()) {
+        tasks.add(new TabTask(tab));
+      }
+      
+      invokeAll(tasks);
+      return new NoderedToVertigo(tasks);
+    }
+  }
+  
+  private static class Tab {
+    private final String id, label;
+    private final List<JsonObject> nodes;
+    
+    private Tab(String id, String label, List<JsonObject> nodes) {
+      this.id = id;
+      this.label = label;
+      this.nodes = nodes;
+    }
+    
+    private FlowGraph build() {
+      return Translator.build(id, label, nodes);
+    }
+  }
+  
+  private static class TabTask extends RecursiveTask<JsonObject> {
+    private static final long serialVersionUID = 2418370416325925317L;
+    private final Tab tab;
+    private FlowGraph graph;
+    
+    private TabTask(Tab tab) {
+      this.tab = tab;
+    }
+    
+    @Override
+    protected JsonObject compute() {
+      graph = tab.build();
+      return new Translator(graph).translate();
+    }
   }
 }
@@ -1,10 +1,17 @@
 package net.orolle.vertigo.verticleflow.translate;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.orolle.vertigo.verticleflow.VertigoManager;
+import net.orolle.vertigo.verticleflow.model.FlowEdge;
+import net.orolle.vertigo.verticleflow.model.FlowGraph;
+import net.orolle.vertigo.verticleflow.model.FlowLayout;
+import net.orolle.vertigo.verticleflow.model.FlowNode;
+import net.orolle.vertigo.verticleflow.util.Tool;
 
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
@@ -20,13 +27,7 @@ public class VertigoToNodered {
     JsonArray nodered = new JsonArray();
     
     for (JsonObject network : networks) {
-      network = network.getObject("network", new JsonObject()).getObject("config", new JsonObject());
-      
-      String name = network.getString("name", "DEFAULT");
-      JsonObject components = network.getObject("components", new JsonObject());
-      JsonArray  connections = network.getArray("connections", new JsonArray());
-      
-      for (JsonObject ele : configToNodered(name, components, connections)) {
+      for (JsonObject ele : toNodered(toGraph(VertigoManager.networkConfig(network)))) {
         nodered.add(ele);
       }
     }
@@ -34,19 +35,22 @@ public class VertigoToNodered {
     return nodered;
   }
 
-  private static List<JsonObject> configToNodered(String name, JsonObject components, JsonArray connections) {
-    String networkId = randomId();
-    JsonObject tab = new JsonObject().putString("type", "tab").putString("id", networkId).putString("label", name);
+  /**
+   * Reads a vertigo network configuration into a laid out graph.
+   * Connections with a selector are routed through a grouping node of the selector type.
+   * Ids are derived from the configuration and components are sorted by name,
+   * so the same network always gives the same graph.
+   */
+  public static FlowGraph toGraph(JsonObject network) {
+    String name = network.getString("name", "DEFAULT");
+    JsonObject components = network.getObject("components", new JsonObject());
+    JsonArray  connections = network.getArray("connections", new JsonArray());
     
-    HashMap<String, JsonObject> nrComponents = new HashMap<>();
-    for (String cName : components.getFieldNames()) {
-      JsonObject vComponent = components.getObject(cName, new JsonObject());
-      String vName = vComponent.getString("name", "DEFAULT");
-      JsonObject vConfig = vComponent.getObject("config", new JsonObject());
-      int vInstances = vComponent.getInteger("instances", 1);
-      String moduleId = vComponent.getString("module", "DEFAULT");
-      
-      nrComponents.put(cName, createNoderedComponent(networkId, vName, vConfig, vInstances, moduleId));
+    FlowGraph.Builder b = new FlowGraph.Builder(Tool.stableId("tab", name), name);
+    Set<String> selectorIds = new HashSet<>();
+    
+    for (String cName : new TreeSet<>(components.getFieldNames())) {
+      b.node(FlowNode.fromVertigo(cName, components.getObject(cName, new JsonObject())));
     }
     
     for (Object o : connections) {
@@ -56,86 +60,52 @@ public class VertigoToNodered {
         JsonObject target = con.getObject("target", new JsonObject());
         String selector = con.getObject("selector", new JsonObject()).getString("type", "");
         
+        String sComp = source.getString("component");
+        String sPort = source.getString("port");
+        String tComp = target.getString("component");
+        String tPort = target.getString("port");
+        
         if(selector.equals("")) { // No selector
-          String sComp = source.getString("component");
-          String sPort = source.getString("port");
-          String tComp = target.getString("component");
-          String tPort = target.getString("port");
-          
-          JsonArray outPort = getOrCreateArray(nrComponents.get(sComp).getObject("wires"), sPort);
-          outPort.addObject(new JsonObject().putString("node", tComp)
-              .putString("port", tPort));
+          b.edge(sComp, sPort, tComp, tPort);
           
         } else { // Has a selector
-          String selectorId = randomId();
-          nrComponents.put(selectorId, createNoderedComponent(networkId, selectorId, new JsonObject(), 1, selector));
-          
-          String sComp = source.getString("component");
-          String sPort = source.getString("port");
-          String tComp = target.getString("component");
-          String tPort = target.getString("port");
-          
-          JsonArray outPort = getOrCreateArray(nrComponents.get(sComp).getObject("wires"), sPort);
-          outPort.addObject(new JsonObject().putString("node", selectorId)
-              .putString("port", "in"));
-          
-          outPort = getOrCreateArray(nrComponents.get(selectorId).getObject("wires"), "out");
-          outPort.addObject(new JsonObject().putString("node", tComp)
-              .putString("port", tPort));
+          String selectorId = Tool.stableId(name, sComp, sPort, tComp, tPort, selector);
+          for (int i = 1; !selectorIds.add(selectorId); i++) { // same connection listed twice
+            selectorId = Tool.stableId(name, sComp, sPort, tComp, tPort, selector, i+"");
+          }
+          b.node(new FlowNode(selectorId, selector, selector, new JsonObject(), 1, 100, 100));
+          b.edge(sComp, sPort, selectorId, "in");
+          b.edge(selectorId, "out", tComp, tPort);
         }
       }
     }
     
-    // Construct Node-Red network
-    List<JsonObject> ret = new ArrayList<>();
-    ret.add(tab);
-    for (Entry<String, JsonObject> e : nrComponents.entrySet()) {
-      ret.add(e.getValue());
-    }
-    
-    return ret;
-  }
-
-  private static String randomId() {
-    return Integer.toHexString(new Random().nextInt(Integer.MAX_VALUE))+"."+Integer.toHexString(new Random().nextInt(Integer.MAX_VALUE)).toLowerCase();
+    return FlowLayout.layout(b.build());
   }
 
-  private static JsonArray getOrCreateArray(JsonObject o, String aName) {
-    if(!o.containsField(aName))
-      o.putArray(aName, new JsonArray());
+  /**
+   * @return the tab followed by the nodes of the graph.
+   */
+  public static List<JsonObject> toNodered(FlowGraph graph) {
+    List<JsonObject> ret = new ArrayList<>(graph.size() + 1);
+    ret.add(new JsonObject().putString("type", "tab").putString("id", graph.id()).putString("label", graph.name()));
     
-    return o.getArray(aName);
-  }
-
-  private static JsonObject createNoderedComponent(String networkId, String vName, JsonObject vConfig, int vInstances, String moduleId) {
-    JsonObject nodered = new JsonObject();
-    /*
-    "id" : "88dc7d07.b6dce8",
-    "type" : "net.orolle.vertigo.module~vertigo-word-feeder~0.1",
-    "name" : "net.orolle.vertigo.module~vertigo-word-feeder~0.1",
-    "config" : "{\n  \n}",
-    "instances" : "1",
-    "x" : 182.28334045410156,
-    "y" : 201.28334045410156,
-    "z" : "a4f6424c.b67458",
-    "wires" : {
-      "word" : [ {
-        "node" : "bcb9f7de.45685",
-        "port" : "in"
-      } ]
+    for (FlowNode n : graph.nodes()) {
+      JsonObject node = n.toNoderedJson(graph.id());
+      JsonObject wires = node.getObject("wires");
+      
+      for (FlowEdge e : graph.outEdges(n)) {
+        if(!wires.containsField(e.sourcePort()))
+          wires.putArray(e.sourcePort(), new JsonArray());
+        
+        wires.getArray(e.sourcePort()).addObject(new JsonObject()
+        .putString("node", e.target().id())
+        .putString("port", e.targetPort()));
+      }
+      
+      ret.add(node);
     }
-    */
     
-    nodered.putString("id", vName)
-    .putString("type", moduleId)
-    .putString("name", moduleId)
-    .putString("config", vConfig.encodePrettily().replace("\n", "\\n"))
-    .putString("instances", vInstances+"")
-    .putObject("wires", new JsonObject())
-    .putString("z", networkId)
-    .putNumber("x", 100)
-    .putNumber("y", 100);
-    
-    return nodered;
+    return ret;
   }
 }
@@ -0,0 +1,116 @@
+package net.orolle.vertigo.verticleflow.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+
+/**
+ * Fork-join worker pool for CPU bound work which must not block the event loop.
+ * Tasks may fork sub tasks, results are delivered on the context which submitted the task.
+ */
+public class Background {
+  private final ForkJoinPool pool;
+
+  public Background(int parallelism) {
+    this.pool = new ForkJoinPool(Math.max(1, parallelism));
+  }
+
+  public <T> void run(Vertx vertx, Callable<T> task, Handler<AsyncResult<T>> done) {
+    run(vertx, ForkJoinTask.adapt(task), done);
+  }
+
+  public <T> void run(Vertx vertx, final ForkJoinTask<T> task, final Handler<AsyncResult<T>> done) {
+    final Context context = vertx.currentContext();
+
+    pool.execute(new RecursiveAction() {
+      private static final long serialVersionUID = 6617409853101062311L;
+
+      @Override
+      protected void compute() {
+        deliver(context, result(task), done);
+      }
+    });
+  }
+
+  /**
+   * @return a queue which runs its tasks on this pool one at a time, in the order they were submitted.
+   */
+  public Serial serial() {
+    return new Serial();
+  }
+
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  private static <T> DefaultFutureResult<T> result(ForkJoinTask<T> task) {
+    try {
+      return new DefaultFutureResult<>(task.invoke());
+    } catch (Throwable t) {
+      return new DefaultFutureResult<>(t);
+    }
+  }
+
+  private static <T> void deliver(Context context, final DefaultFutureResult<T> result, final Handler<AsyncResult<T>> done) {
+    context.runOnContext(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        done.handle(result);
+      }
+    });
+  }
+
+  /**
+   * Runs tasks one after another on the pool, e.g. appends to a journal which must keep the order of the requests.
+   */
+  public class Serial {
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private boolean running = false;
+
+    private Serial() {
+    }
+
+    public <T> void run(Vertx vertx, Callable<T> task, final Handler<AsyncResult<T>> done) {
+      final Context context = vertx.currentContext();
+      final ForkJoinTask<T> adapted = ForkJoinTask.adapt(task);
+
+      Runnable r = new Runnable() {
+        @Override
+        public void run() {
+          DefaultFutureResult<T> result = result(adapted);
+          next();
+          deliver(context, result, done);
+        }
+      };
+
+      synchronized (this) {
+        if(running) {
+          queue.add(r);
+          return;
+        }
+        running = true;
+      }
+      pool.execute(r);
+    }
+
+    private void next() {
+      Runnable r;
+      synchronized (this) {
+        r = queue.poll();
+        if(r == null) {
+          running = false;
+          return;
+        }
+      }
+      pool.execute(r);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package net.orolle.vertigo.verticleflow.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Extracts the mod.json of a vert.x module zip.
+ */
+public class ModJson {
+  public static final String ENTRY = "mod.json";
+
+  /**
+   * Looks mod.json up in the central directory of the zip and inflates only that entry.
+   *
+   * @return the parsed mod.json or null if the zip has none
+   * @throws IOException if the zip can not be read
+   */
+  public static JsonObject read(File zip) throws IOException {
+    try (ZipFile zf = new ZipFile(zip)) {
+      ZipEntry ze = zf.getEntry(ENTRY);
+
+      if (ze == null) {
+        return null;
+      }
+
+      try (InputStream in = zf.getInputStream(ze)) {
+        return parse(readFully(in, ze.getSize()));
+      }
+    }
+  }
+
+  /**
+   * Streams through the local entries of the zip until mod.json is found.
+   * Kept as reference for {@link #read(File)}, which does not inflate the entries in front of mod.json.
+   *
+   * @return the parsed mod.json or null if the zip has none
+   * @throws IOException if the zip can not be read
+   */
+  public static JsonObject readStreaming(File zip) throws IOException {
+    try (ZipInputStream zin = new ZipInputStream(new FileInputStream(zip))) {
+      ZipEntry ze = null;
+      while ((ze = zin.getNextEntry()) != null) {
+        if (ze.getName().equals(ENTRY)) {
+          return parse(readFully(zin, ze.getSize()));
+        }
+      }
+    }
+
+    return null;
+  }
+
+  private static JsonObject parse(byte[] raw) {
+    return new JsonObject(new String(raw, StandardCharsets.UTF_8));
+  }
+
+  private static byte[] readFully(InputStream in, long size) throws IOException {
+    if (size >= 0 && size <= Integer.MAX_VALUE) {
+      byte[] raw = new byte[(int) size];
+      int off = 0, len;
+      while (off < raw.length && (len = in.read(raw, off, raw.length - off)) != -1) {
+        off += len;
+      }
+
+      if (off == raw.length) {
+        return raw;
+      }
+      throw new IOException("Truncated "+ENTRY+": read "+off+" of "+size+" bytes");
+    }
+
+    // Size unknown, e.g. streamed entries with data descriptor
+    ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+    byte[] buffer = new byte[8192];
+    int len;
+    while ((len = in.read(buffer)) != -1) {
+      out.write(buffer, 0, len);
+    }
+    return out.toByteArray();
+  }
+}
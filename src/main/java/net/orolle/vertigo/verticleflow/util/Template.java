@@ -0,0 +1,81 @@
+package net.orolle.vertigo.verticleflow.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A text template, parsed once into literal and placeholder segments.
+ * A placeholder is written as <code>"&lt;NAME&gt;"</code>, quotes included, so a template stays valid JavaScript.
+ * Rendering replaces the whole token by the raw value, which therefore has to bring its own quotes if needed.
+ */
+public class Template {
+  private static final Pattern PLACEHOLDER = Pattern.compile("\"<([A-Z_]+)>\"");
+
+  private final String[] literals;
+  private final String[] keys;
+  private final int literalLength;
+
+  private Template(List<String> literals, List<String> keys) {
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.keys = keys.toArray(new String[keys.size()]);
+
+    int len = 0;
+    for (String l : literals) {
+      len += l.length();
+    }
+    this.literalLength = len;
+  }
+
+  public static Template compile(String text) {
+    List<String> literals = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+
+    Matcher m = PLACEHOLDER.matcher(text);
+    int last = 0;
+    while (m.find()) {
+      literals.add(text.substring(last, m.start()));
+      keys.add(m.group(1));
+      last = m.end();
+    }
+    literals.add(text.substring(last));
+
+    return new Template(literals, keys);
+  }
+
+  /**
+   * @return names of all placeholders in order of first appearance.
+   */
+  public Set<String> placeholders() {
+    Set<String> res = new LinkedHashSet<>();
+    Collections.addAll(res, keys);
+    return res;
+  }
+
+  /**
+   * Renders the template in a single pass. Placeholders without value are kept as they are.
+   */
+  public String render(Map<String, String> values) {
+    int len = literalLength;
+    String[] rendered = new String[keys.length];
+
+    for (int i = 0; i < keys.length; i++) {
+      String v = values.get(keys[i]);
+      rendered[i] = v != null? v : "\"<"+keys[i]+">\"";
+      len += rendered[i].length();
+    }
+
+    StringBuilder res = new StringBuilder(len);
+    for (int i = 0; i < keys.length; i++) {
+      res.append(literals[i]).append(rendered[i]);
+    }
+    res.append(literals[keys.length]);
+
+    return res.toString();
+  }
+}
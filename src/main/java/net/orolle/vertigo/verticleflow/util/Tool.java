@@ -33,4 +33,46 @@ public class Tool {
     
     return out;
   }
+  
+  /**
+   * @return the string as JSON string literal, quotes included.
+   */
+  public static String quote(String s) {
+    String json = new JsonArray().addString(s).encode();
+    return json.substring(1, json.length()-1);
+  }
+  
+  public static String escapeHtml(String s) {
+    StringBuilder out = new StringBuilder(s.length());
+    
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+      case '<': out.append("&lt;"); break;
+      case '>': out.append("&gt;"); break;
+      case '&': out.append("&amp;"); break;
+      case '"': out.append("&quot;"); break;
+      default: out.append(c);
+      }
+    }
+    
+    return out.toString();
+  }
+  
+  /**
+   * @return a Node-RED style id derived from the parts only, so the same parts always give the same id.
+   */
+  public static String stableId(String... parts) {
+    long h = 0xcbf29ce484222325L; // 64 bit FNV-1a
+    
+    for (String part : parts) {
+      String p = String.valueOf(part);
+      for (int i = 0; i < p.length(); i++) {
+        h = (h ^ p.charAt(i)) * 0x100000001b3L;
+      }
+      h = (h ^ 0xffff) * 0x100000001b3L;
+    }
+    
+    return String.format("%08x.%06x", h >>> 32, h & 0xffffffL);
+  }
 }
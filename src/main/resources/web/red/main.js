@@ -70,36 +70,78 @@ var RED = function() {
                 $( "#node-dialog-confirm-deploy-config" ).show();
                 $( "#node-dialog-confirm-deploy-unknown" ).hide();
             }
+            $( "#node-dialog-confirm-deploy-capacity" ).hide();
             $( "#node-dialog-confirm-deploy" ).dialog( "open" );
             return;
         }
       }
       var nns = RED.nodes.createCompleteNodeSet();
       
-      $("#btn-icn-deploy").removeClass('icon-upload');
-      $("#btn-icn-deploy").addClass('spinner');
-      RED.view.dirty(false);
+      if (!force) {
+        analyze(nns);
+        return;
+      }
+      deploy(nns);
+    }
+  }
+  
+  // asks before deploying networks whose components cannot keep up with the source rates
+  function analyze(nns) {
+    RED.bus.send('web.in.flows.analyze', {"flow": nns}, function(payload) {
+      var overloaded = [];
+      if (payload && payload.status == "ok") {
+        for (var net in payload.networks) {
+          var report = payload.networks[net];
+          if (!report.sustainable) {
+            var c = report.components[report.bottleneck];
+            var n = RED.nodes.node(report.bottleneck);
+            overloaded.push("<strong>"+net+"</strong>: "+(n ? n.name : report.bottleneck)+" at "+
+                Math.round(c.utilization * 100)+"% utilization, needs "+(c.needed < 0 ? "a cheaper input than 'all'" : c.needed+" instances"));
+          }
+        }
+      }
       
-      try{
-        RED.bus.send('web.in.flows.deploy', nns, function(payload){
+      if (overloaded.length == 0) {
+        deploy(nns);
+        return;
+      }
+      $( "#node-dialog-confirm-deploy-config" ).hide();
+      $( "#node-dialog-confirm-deploy-unknown" ).hide();
+      $( "#node-dialog-confirm-deploy-capacity-list" ).html("<li>"+overloaded.join("</li><li>")+"</li>");
+      $( "#node-dialog-confirm-deploy-capacity" ).show();
+      $( "#node-dialog-confirm-deploy" ).dialog( "open" );
+    });
+  }
+  
+  function deploy(nns) {
+    $("#btn-icn-deploy").removeClass('icon-upload');
+    $("#btn-icn-deploy").addClass('spinner');
+    RED.view.dirty(false);
+    
+    try{
+      // sent as raw document, the server streams it into the translator
+      RED.bus.send('web.in.flows.deploy', JSON.stringify(nns), function(payload){
+        if (payload && payload.status == "error") {
+          RED.notify("<strong>Error</strong>: "+payload.message,"error");
+        } else {
           RED.notify("Successfully deployed","success");
+        }
 
-          RED.nodes.eachNode(function(node) {
-            if (node.changed) {
-              node.dirty = true;
-              node.changed = false;
-            }
-          });
-          // Once deployed, cannot undo back to a clean state
-          RED.history.markAllDirty();
-          RED.view.redraw();
-          
-          $("#btn-icn-deploy").removeClass('spinner');
-          $("#btn-icn-deploy").addClass('icon-upload');
+        RED.nodes.eachNode(function(node) {
+          if (node.changed) {
+            node.dirty = true;
+            node.changed = false;
+          }
         });
-      }catch(e){
-        RED.notify("Might have lost connection to service. Close this and login again.","error");
-      }
+        // Once deployed, cannot undo back to a clean state
+        RED.history.markAllDirty();
+        RED.view.redraw();
+        
+        $("#btn-icn-deploy").removeClass('spinner');
+        $("#btn-icn-deploy").addClass('icon-upload');
+      });
+    }catch(e){
+      RED.notify("Might have lost connection to service. Close this and login again.","error");
     }
   }
 
@@ -137,24 +179,93 @@ var RED = function() {
   }
   
   function loadNodes() {  
-    RED.bus.send("web.in.component.names", {}, function(payload) {
-      var requests = payload.length;
+    RED.bus.send("web.in.component.htmls", {}, function(payload) {
+      for (var name in payload) {
+        $("body").append(payload[name]);
+      }
       
-      for (var i in payload) {
-        var name = payload[i];
-        
-        RED.bus.send("web.in.component.html", {"moduleId": name}, function(payload) {
-          $("body").append(payload);
-          $(".palette-spinner").hide();
-          $(".palette-scroll").show();
-          $("#palette-search").show();
-          requests--;
-          
-          if(requests == 0) {
-            loadFlows();
+      $(".palette-spinner").hide();
+      $(".palette-scroll").show();
+      $("#palette-search").show();
+      
+      loadFlows();
+      watchComponents();
+      watchMetrics();
+    });
+  }
+  
+  function loadComponent(name, callback) {
+    RED.bus.send("web.in.component.html", {"moduleId": name}, function(payload) {
+      $("script[data-template-name='"+name+"'], script[data-help-name='"+name+"']").remove();
+      $("body").append(payload);
+      callback();
+    });
+  }
+  
+  function watchComponents() {
+    var reload = function(msg) {
+      loadComponent(msg.moduleId, function() {});
+    };
+    
+    RED.bus.registerHandler("web.out.component.added", reload);
+    RED.bus.registerHandler("web.out.component.updated", reload);
+    RED.bus.registerHandler("web.out.component.removed", function(msg) {
+      RED.palette.remove(msg.moduleId);
+    });
+  }
+
+  function watchMetrics() {
+    RED.bus.registerHandler("web.out.metrics.components", function(msg) {
+      RED.nodes.eachNode(function(n) {
+        if (n.metrics) {
+          delete n.metrics;
+          n.dirty = true;
+        }
+      });
+      for (var net in msg.networks) {
+        for (var id in msg.networks[net]) {
+          var n = RED.nodes.node(id);
+          if (n) {
+            n.metrics = msg.networks[net][id];
+            n.dirty = true;
           }
-        })
+        }
+      }
+      RED.view.redraw();
+    });
+    
+    // connections are keyed "source:port->target:port", wires through a grouping node match one of both ends
+    RED.bus.registerHandler("web.out.metrics.connections", function(msg) {
+      var bySource = {}, byTarget = {};
+      for (var net in msg.networks) {
+        for (var key in msg.networks[net]) {
+          var ends = key.split("->");
+          bySource[ends[0]] = msg.networks[net][key];
+          byTarget[ends[1]] = msg.networks[net][key];
+        }
+      }
+      
+      RED.nodes.eachLink(function(l) {
+        var out = l.source._def.outputs[l.sourcePort];
+        var inp = l.target._def.inputs[l.targetPort || 0];
+        l.metrics = (out && bySource[l.source.id+":"+out.name]) || (inp && byTarget[l.target.id+":"+inp.name]);
+      });
+      RED.view.redraw();
+    });
+    
+    // keep the editor at the scaled instance count, so the next deployment does not undo it
+    RED.bus.registerHandler("web.out.autoscale", function(msg) {
+      if (msg.status != "ok") {
+        RED.notify("<strong>Autoscaling failed</strong>: "+msg.component+": "+msg.message,"error");
+        return;
+      }
+      var n = RED.nodes.node(msg.component);
+      if (n) {
+        n.instances = ""+msg.to;
+        n.dirty = true;
+        RED.view.redraw();
       }
+      RED.notify("Scaled <strong>"+(n ? n.name : msg.component)+"</strong> from "+msg.from+" to "+msg.to+" instances: "+msg.reason,"success");
     });
   }
 
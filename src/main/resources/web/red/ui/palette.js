@@ -17,6 +17,8 @@ RED.palette = function() {
     
     function addNodeType(nt,def) {
         if (def.category != 'config') {
+            removeNodeType(nt);
+            
             var d = document.createElement("div");
             d.id = "pn_"+nt;
             d.type = nt;
@@ -74,6 +76,14 @@ RED.palette = function() {
         }
     }
     
+    function removeNodeType(nt) {
+        var d = document.getElementById("pn_"+nt);
+        if (d) {
+            $(d).popover('destroy');
+            $(d).remove();
+        }
+    }
+    
     $(".palette-header").click(function(e) {
         $(this).next().slideToggle();
         $(this).children("i").toggleClass("expanded");
@@ -123,6 +133,7 @@ RED.palette = function() {
     });
     
     return {
-        add:addNodeType
+        add:addNodeType,
+        remove:removeNodeType
     };
 }();
@@ -907,6 +907,7 @@ RED.view = function() {
                 //node.append("path").attr("class","node_error").attr("d","M 3,-3 l 10,0 l -5,-8 z");
                 node.append("image").attr("class","node_error hidden").attr("xlink:href","icons/node-error.png").attr("x",0).attr("y",-6).attr("width",10).attr("height",9);
                 node.append("image").attr("class","node_changed hidden").attr("xlink:href","icons/node-changed.png").attr("x",12).attr("y",-6).attr("width",10).attr("height",10);
+                node.append("svg:text").attr("class","node_metrics").attr("x",0);
             });
 
             node.each(function(d,i) {
@@ -1044,6 +1045,10 @@ RED.view = function() {
                     //         return typeof d._def.button.color  === "function" ? d._def.button.color.call(d):(d._def.button.color != null ? d._def.button.color : d._def.color)
                     //});
 
+                    thisNode.selectAll('text.node_metrics').attr("y",function(d){return d.h+14;}).text(function(d) {
+                        return d.metrics ? metricsLabel(d.metrics) : "";
+                    });
+
                     thisNode.selectAll('.node_badge_group').attr("transform",function(d){return "translate("+(d.w-40)+","+(d.h+3)+")";});
                     thisNode.selectAll('text.node_badge_label').text(function(d,i) {
                         if (d._def.badge) {
@@ -1120,6 +1125,13 @@ RED.view = function() {
                     (d.target.x-d.target.w/2)+" "+(d.target.y+ty);
         })
 
+        link.style("stroke-width", function(d) {
+            // thicker wires for busier connections
+            return d.metrics ? Math.min(12, 4+Math.log(1+d.metrics.rate)) : null;
+        });
+
+        // messages queued on the connection, as reported by its components
+        link.classed("link_backlog", function(d) { return d.metrics && d.metrics.queue > 0; });
         link.classed("link_selected", function(d) { return d === selected_link || d.selected; });
         link.classed("link_unknown",function(d) { return d.target.type == "unknown" || d.source.type == "unknown"});
 
@@ -1349,6 +1361,17 @@ RED.view = function() {
 
     });
 
+    function metricsLabel(m) {
+        var label = Math.round(m.rate)+"/s";
+        if (m.latency && m.latency.count > 0) {
+            label += "  p99 "+(m.latency.p99/1000).toFixed(1)+"ms";
+        }
+        if (m.queue > 0) {
+            label += "  q "+m.queue;
+        }
+        return label;
+    }
+
     return {
         state:function(state) {
             if (state == null) {
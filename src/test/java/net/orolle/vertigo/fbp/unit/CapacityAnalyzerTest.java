@@ -0,0 +1,130 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.orolle.vertigo.verticleflow.translate.CapacityAnalyzer;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class CapacityAnalyzerTest {
+  private static final double DELTA = 1e-6;
+
+  private final Map<String, JsonObject> profiles = new HashMap<>();
+
+  @Test
+  public void sustainableChain() {
+    profiles.put("m~w~1", new JsonObject().putNumber("msPerMessage", 5));
+    JsonObject network = network(component("s", "m~s~1", 1), component("w", "m~w~1", 1))
+        .putArray("connections", new JsonArray().addObject(connection("s", "w", "round-robin")));
+
+    JsonObject report = new CapacityAnalyzer(profiles, new JsonObject(), 0.8).analyze(network, 100);
+    JsonObject w = report.getObject("components").getObject("w");
+
+    assertTrue(report.getBoolean("sustainable"));
+    assertEquals("w", report.getString("bottleneck"));
+    assertEquals(100, report.getNumber("rate").doubleValue(), DELTA);
+    assertEquals(200, report.getNumber("maxRate").doubleValue(), DELTA);
+    assertEquals(0.5, w.getNumber("utilization").doubleValue(), DELTA);
+    assertEquals("declared", w.getString("cost"));
+    assertEquals(1, w.getInteger("needed").intValue());
+  }
+
+  @Test
+  public void overloadedComponentNeedsMoreInstances() {
+    profiles.put("m~w~1", new JsonObject().putNumber("msPerMessage", 5));
+    JsonObject network = network(component("s", "m~s~1", 1), component("w", "m~w~1", 2))
+        .putArray("connections", new JsonArray().addObject(connection("s", "w", "fair")));
+
+    JsonObject report = new CapacityAnalyzer(profiles, new JsonObject(), 0.8).analyze(network, 1000);
+    JsonObject w = report.getObject("components").getObject("w");
+
+    assertFalse(report.getBoolean("sustainable"));
+    assertEquals(500, w.getNumber("perInstance").doubleValue(), DELTA);
+    assertEquals(2.5, w.getNumber("utilization").doubleValue(), DELTA);
+    assertEquals(7, w.getInteger("needed").intValue());
+  }
+
+  @Test
+  public void outputRatiosScaleDownstreamRates() {
+    profiles.put("m~split~1", new JsonObject().putNumber("msPerMessage", 1).putObject("outputs", new JsonObject().putNumber("out", 3)));
+    JsonObject network = network(component("s", "m~s~1", 1), component("split", "m~split~1", 1), component("w", "m~w~1", 1))
+        .putArray("connections", new JsonArray().addObject(connection("s", "split", "fair")).addObject(connection("split", "w", "fair")));
+
+    JsonObject report = new CapacityAnalyzer(profiles, new JsonObject(), 1).analyze(network, 100);
+
+    assertEquals(300, report.getObject("components").getObject("w").getNumber("rate").doubleValue(), DELTA);
+    assertEquals(new JsonArray().addString("No cost known for [m~s~1, m~w~1]"), report.getArray("warnings"));
+  }
+
+  @Test
+  public void allSelectorSendsEveryMessageToEveryInstance() {
+    profiles.put("m~w~1", new JsonObject().putNumber("msPerMessage", 5));
+    JsonObject network = network(component("s", "m~s~1", 1), component("w", "m~w~1", 3))
+        .putArray("connections", new JsonArray().addObject(connection("s", "w", "all")));
+
+    JsonObject w = new CapacityAnalyzer(profiles, new JsonObject(), 0.8).analyze(network, 100).getObject("components").getObject("w");
+    assertEquals(300, w.getNumber("rate").doubleValue(), DELTA);
+    assertEquals(100, w.getNumber("perInstance").doubleValue(), DELTA);
+    assertEquals(1, w.getInteger("needed").intValue());
+
+    // more instances do not help if a single instance cannot keep up
+    w = new CapacityAnalyzer(profiles, new JsonObject(), 0.8).analyze(network, 200).getObject("components").getObject("w");
+    assertEquals(-1, w.getInteger("needed").intValue());
+  }
+
+  @Test
+  public void measuredLatencyTakesPrecedence() {
+    profiles.put("m~w~1", new JsonObject().putNumber("msPerMessage", 5));
+    JsonObject network = network(component("s", "m~s~1", 1), component("w", "m~w~1", 1))
+        .putArray("connections", new JsonArray().addObject(connection("s", "w", "fair")));
+    JsonObject measured = new JsonObject().putObject("net", new JsonObject().putObject("w", new JsonObject()
+        .putObject("latency", new JsonObject().putNumber("count", 10).putNumber("mean", 2000))));
+
+    JsonObject w = new CapacityAnalyzer(profiles, measured, 1).analyze(network, 100).getObject("components").getObject("w");
+    assertEquals("measured", w.getString("cost"));
+    assertEquals(2, w.getNumber("costMs").doubleValue(), DELTA);
+    assertEquals(0.2, w.getNumber("utilization").doubleValue(), DELTA);
+  }
+
+  @Test
+  public void feedbackLoopSettlesOrIsReported() {
+    profiles.put("m~b~1", new JsonObject().putObject("outputs", new JsonObject().putNumber("out", 0.5)));
+    JsonObject network = network(component("s", "m~s~1", 1), component("a", "m~a~1", 1), component("b", "m~b~1", 1))
+        .putArray("connections", new JsonArray().addObject(connection("s", "a", "fair"))
+            .addObject(connection("a", "b", "fair")).addObject(connection("b", "a", "fair")));
+
+    JsonObject report = new CapacityAnalyzer(profiles, new JsonObject(), 1).analyze(network, 100);
+    assertEquals(200, report.getObject("components").getObject("a").getNumber("rate").doubleValue(), 1e-3);
+    assertEquals(1, report.getArray("warnings").size());
+
+    profiles.remove("m~b~1");
+    report = new CapacityAnalyzer(profiles, new JsonObject(), 1).analyze(network, 100);
+    assertEquals(2, report.getArray("warnings").size());
+  }
+
+  private static JsonObject network(JsonObject... components) {
+    JsonObject comps = new JsonObject();
+    for (JsonObject c : components) {
+      comps.putObject(c.getString("name"), c);
+    }
+    return new JsonObject().putString("name", "net").putObject("components", comps);
+  }
+
+  private static JsonObject component(String id, String module, int instances) {
+    return new JsonObject().putString("name", id).putString("module", module).putNumber("instances", instances);
+  }
+
+  private static JsonObject connection(String source, String target, String selector) {
+    return new JsonObject()
+    .putObject("source", new JsonObject().putString("component", source).putString("port", "out"))
+    .putObject("target", new JsonObject().putString("component", target).putString("port", "in"))
+    .putObject("selector", new JsonObject().putString("type", selector));
+  }
+}
@@ -0,0 +1,176 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.orolle.vertigo.verticleflow.FlowHistory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class FlowHistoryTest {
+  private static final int HEADER = 25;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File file;
+  private FlowHistory history;
+
+  @Before
+  public void setUp() throws Exception {
+    file = new File(tmp.getRoot(), "flows.journal");
+    history = new FlowHistory(file.getPath(), 3).open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    history.close();
+  }
+
+  @Test
+  public void unchangedFlowKeepsItsRevision() throws Exception {
+    assertEquals(1, history.append(flow(node("a", 1))));
+    assertEquals(1, history.append(flow(node("a", 1))));
+    assertEquals(2, history.append(flow(node("a", 2))));
+    assertEquals(2, history.latestRevision());
+  }
+
+  @Test
+  public void restoreRebuildsEveryRevisionFromSnapshotsAndDeltas() throws Exception {
+    List<JsonArray> flows = revisions();
+    for (JsonArray flow : flows) {
+      history.append(flow);
+    }
+
+    for (int i = 0; i < flows.size(); i++) {
+      assertEquals(flows.get(i), history.restore(i + 1));
+    }
+    assertNull(history.restore(flows.size() + 1));
+
+    JsonArray list = history.list(0, 10);
+    assertEquals(flows.size(), list.size());
+    assertEquals(flows.size(), ((JsonObject) list.get(0)).getInteger("revision").intValue());
+    for (Object o : list) {
+      JsonObject rev = (JsonObject) o;
+      assertEquals((rev.getInteger("revision") - 1) % 3 == 0? "snapshot" : "delta", rev.getString("type"));
+    }
+  }
+
+  @Test
+  public void reopenedJournalKeepsRevisions() throws Exception {
+    List<JsonArray> flows = revisions();
+    for (JsonArray flow : flows) {
+      history.append(flow);
+    }
+    history.close();
+
+    history = new FlowHistory(file.getPath(), 3).open();
+    assertEquals(flows.size(), history.latestRevision());
+    for (int i = 0; i < flows.size(); i++) {
+      assertEquals(flows.get(i), history.restore(i + 1));
+    }
+
+    // unchanged after reopening, the latest flow is rebuilt from the journal
+    assertEquals(flows.size(), history.append(flows.get(flows.size() - 1)));
+  }
+
+  @Test
+  public void tornRecordEndsJournalAndIsOverwritten() throws Exception {
+    history.append(flow(node("a", 1)));
+    history.append(flow(node("a", 2)));
+    int first = ((JsonObject) history.list(1, 1).get(0)).getInteger("size");
+    history.close();
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      long payload = HEADER + first + HEADER;
+      raf.seek(payload);
+      raf.write(raf.read() ^ 0xFF);
+    }
+
+    history = new FlowHistory(file.getPath(), 3).open();
+    assertEquals(1, history.latestRevision());
+    assertEquals(2, history.append(flow(node("b", 1))));
+    history.close();
+
+    history = new FlowHistory(file.getPath(), 3).open();
+    assertEquals(2, history.latestRevision());
+    assertEquals(flow(node("b", 1)), history.restore(2));
+  }
+
+  @Test
+  public void journalGrowsBeyondItsInitialMapping() throws Exception {
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 300 * 1024; i++) {
+      big.append('x');
+    }
+
+    List<JsonArray> flows = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      flows.add(flow(node("a", i).putString("payload", big.toString())));
+      history.append(flows.get(i));
+    }
+    history.close();
+
+    history = new FlowHistory(file.getPath(), 3).open();
+    assertEquals(6, history.latestRevision());
+    assertEquals(flows.get(0), history.restore(1));
+    assertEquals(flows.get(5), history.restore(6));
+  }
+
+  @Test
+  public void diffComparesNodesById() throws Exception {
+    history.append(flow(node("a", 1), node("b", 1)));
+    history.append(flow(node("b", 2), node("c", 1)));
+
+    JsonObject diff = history.diff(1, 2);
+    assertEquals(new JsonArray().addObject(node("c", 1)), diff.getArray("added"));
+    assertEquals(new JsonArray().addObject(node("a", 1)), diff.getArray("removed"));
+    assertEquals(new JsonArray().addObject(new JsonObject().putObject("before", node("b", 1)).putObject("after", node("b", 2))),
+        diff.getArray("changed"));
+    assertNull(history.diff(1, 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void duplicateIdsAreRejected() throws Exception {
+    history.append(flow(node("a", 1), node("a", 2)));
+  }
+
+  /**
+   * Flows which add, change, remove and reorder nodes, across more than two snapshots.
+   */
+  private static List<JsonArray> revisions() {
+    List<JsonArray> res = new ArrayList<>();
+    res.add(flow(node("a", 1)));
+    res.add(flow(node("a", 1), node("b", 1)));
+    res.add(flow(node("a", 2), node("b", 1)));
+    res.add(flow(node("b", 1)));
+    res.add(flow(node("b", 1), node("c", 1), node("d", 1)));
+    res.add(flow(node("d", 1), node("c", 1), node("b", 1)));
+    res.add(flow(node("d", 2), node("c", 1), node("b", 1)));
+    res.add(flow());
+    return res;
+  }
+
+  private static JsonArray flow(JsonObject... nodes) {
+    JsonArray res = new JsonArray();
+    for (JsonObject n : nodes) {
+      res.addObject(n);
+    }
+    return res;
+  }
+
+  private static JsonObject node(String id, int version) {
+    return new JsonObject().putString("id", id).putString("type", "m~a~1").putNumber("version", version);
+  }
+}
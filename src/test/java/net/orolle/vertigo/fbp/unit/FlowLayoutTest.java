@@ -0,0 +1,78 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.orolle.vertigo.verticleflow.model.FlowGraph;
+import net.orolle.vertigo.verticleflow.model.FlowLayout;
+import net.orolle.vertigo.verticleflow.model.FlowNode;
+import net.orolle.vertigo.verticleflow.util.Tool;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+public class FlowLayoutTest {
+
+  @Test
+  public void chainIsLaidOutLeftToRight() {
+    FlowGraph g = FlowLayout.layout(graph(new String[]{"a", "b", "c"}, "a", "b", "b", "c"));
+
+    assertEquals(FlowLayout.X0, g.node("a").x(), 0);
+    assertEquals(FlowLayout.X0 + FlowLayout.LAYER_GAP, g.node("b").x(), 0);
+    assertEquals(FlowLayout.X0 + 2 * FlowLayout.LAYER_GAP, g.node("c").x(), 0);
+    assertEquals(g.node("a").y(), g.node("c").y(), 0);
+  }
+
+  @Test
+  public void nodeIsPlacedBehindItsLongestPath() {
+    FlowGraph g = FlowLayout.layout(graph(new String[]{"a", "b", "c"}, "a", "c", "a", "b", "b", "c"));
+
+    assertEquals(FlowLayout.X0 + 2 * FlowLayout.LAYER_GAP, g.node("c").x(), 0);
+  }
+
+  @Test
+  public void cyclesAreBrokenAndNodesDoNotOverlap() {
+    FlowGraph g = FlowLayout.layout(graph(new String[]{"a", "b", "c", "d"}, "a", "b", "b", "c", "c", "a", "b", "d"));
+
+    assertTrue(g.node("a").x() < g.node("b").x());
+    assertTrue(g.node("b").x() < g.node("c").x());
+    assertEquals(g.node("c").x(), g.node("d").x(), 0);
+    assertNotEquals(g.node("c").y(), g.node("d").y(), 0);
+    assertEquals(4, g.edges().size());
+  }
+
+  @Test
+  public void sameGraphGetsSameLayout() {
+    String[] ids = {"a", "b", "c", "d", "e"};
+    FlowGraph first = FlowLayout.layout(graph(ids, "a", "c", "b", "c", "a", "d", "c", "e", "d", "e"));
+    FlowGraph second = FlowLayout.layout(graph(ids, "a", "c", "b", "c", "a", "d", "c", "e", "d", "e"));
+
+    for (String id : ids) {
+      assertEquals(first.node(id).x(), second.node(id).x(), 0);
+      assertEquals(first.node(id).y(), second.node(id).y(), 0);
+    }
+  }
+
+  @Test
+  public void stableIdsDependOnThePartsOnly() {
+    assertEquals(Tool.stableId("net", "a"), Tool.stableId("net", "a"));
+    assertNotEquals(Tool.stableId("net", "a"), Tool.stableId("net", "b"));
+    assertNotEquals(Tool.stableId("ne", "ta"), Tool.stableId("net", "a"));
+    assertTrue(Tool.stableId("net", "a").matches("[0-9a-f]{8}\\.[0-9a-f]{6}"));
+  }
+
+  /**
+   * @param wires pairs of source and target ids
+   */
+  private static FlowGraph graph(String[] ids, String... wires) {
+    FlowGraph.Builder b = new FlowGraph.Builder("t", "net");
+    for (String id : ids) {
+      b.node(new FlowNode(id, "m~"+id+"~1", id, new JsonObject(), 1, 0, 0));
+    }
+    for (int i = 0; i < wires.length; i += 2) {
+      b.edge(wires[i], "out", wires[i+1], "in");
+    }
+    return b.build();
+  }
+}
@@ -0,0 +1,226 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.orolle.vertigo.verticleflow.FlowStore;
+import net.orolle.vertigo.verticleflow.util.Background;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class FlowStoreTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Vertx vertx;
+  private Background workers;
+  private File file;
+
+  @Before
+  public void setUp() {
+    vertx = VertxFactory.newVertx();
+    workers = new Background(1);
+    file = new File(tmp.getRoot(), "flows.json");
+  }
+
+  @After
+  public void tearDown() {
+    workers.shutdown();
+    vertx.stop();
+  }
+
+  @Test
+  public void burstOfSavesEndsWithLatestFlow() throws Exception {
+    final FlowStore store = new FlowStore(vertx, workers, file.getPath());
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 1; i <= 20; i++) {
+          store.save(flow(i));
+        }
+      }
+    });
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!flow(20).encode().equals(stored()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(flow(20).encode(), stored());
+    assertFalse(new File(file.getPath()+".tmp").exists());
+    assertEquals(flow(20), load(new FlowStore(vertx, workers, file.getPath())));
+  }
+
+  @Test
+  public void closeStoresFlowBeingWritten() throws Exception {
+    final FlowStore store = new FlowStore(vertx, workers, file.getPath());
+    CountDownLatch busy = blockWorkers();
+
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        store.save(flow(1));
+        store.close();
+      }
+    });
+    assertEquals(flow(1).encode(), stored());
+
+    busy.countDown();
+    drainWorkers();
+    assertEquals(flow(1).encode(), stored());
+  }
+
+  @Test
+  public void closeStoresLatestPendingSave() throws Exception {
+    final FlowStore store = new FlowStore(vertx, workers, file.getPath());
+    CountDownLatch busy = blockWorkers();
+
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 1; i <= 5; i++) {
+          store.save(flow(i));
+        }
+        store.close();
+      }
+    });
+    assertEquals(flow(5).encode(), stored());
+
+    // the write of the first save runs after close, it must not replace the later flow
+    busy.countDown();
+    drainWorkers();
+    assertEquals(flow(5).encode(), stored());
+  }
+
+  @Test
+  public void rawFlowIsStoredAsItIs() throws Exception {
+    final FlowStore store = new FlowStore(vertx, workers, file.getPath());
+    final String raw = "[ {\"id\": \"a\"} ]";
+
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        store.save(new Buffer(raw));
+        store.close();
+      }
+    });
+
+    assertEquals(raw, stored());
+    assertEquals(new JsonArray(raw), load(store));
+  }
+
+  private static JsonArray flow(int version) {
+    return new JsonArray().addObject(new JsonObject().putString("id", "n").putNumber("version", version));
+  }
+
+  private String stored() throws Exception {
+    return file.exists()? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : null;
+  }
+
+  private JsonArray load(final FlowStore store) throws Exception {
+    final BlockingQueue<JsonArray> res = new ArrayBlockingQueue<>(1);
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        store.load().get(new Handler<JsonArray>() {
+          @Override
+          public void handle(JsonArray flow) {
+            res.add(flow);
+          }
+        });
+      }
+    });
+    return res.poll(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Occupies the single worker until the returned latch is released, so the writes of the store queue up behind it.
+   */
+  private CountDownLatch blockWorkers() throws Exception {
+    final CountDownLatch busy = new CountDownLatch(1), started = new CountDownLatch(1);
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        workers.run(vertx, new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            started.countDown();
+            busy.await();
+            return null;
+          }
+        }, new Handler<AsyncResult<Void>>() {
+          @Override
+          public void handle(AsyncResult<Void> event) {
+          }
+        });
+      }
+    });
+    started.await(5, TimeUnit.SECONDS);
+    return busy;
+  }
+
+  /**
+   * Waits for the tasks submitted so far, the single worker runs them in order.
+   */
+  private void drainWorkers() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    onContext(new Runnable() {
+      @Override
+      public void run() {
+        workers.run(vertx, new Callable<Void>() {
+          @Override
+          public Void call() {
+            return null;
+          }
+        }, new Handler<AsyncResult<Void>>() {
+          @Override
+          public void handle(AsyncResult<Void> event) {
+            done.countDown();
+          }
+        });
+      }
+    });
+    done.await(5, TimeUnit.SECONDS);
+  }
+
+  private void onContext(final Runnable r) throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    final Throwable[] failure = new Throwable[1];
+
+    vertx.runOnContext(new Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        try {
+          r.run();
+        } catch (Throwable t) {
+          failure[0] = t;
+        }
+        done.countDown();
+      }
+    });
+
+    done.await(5, TimeUnit.SECONDS);
+    if(failure[0] != null) {
+      throw new AssertionError(failure[0]);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import net.orolle.vertigo.verticleflow.translate.FusionPass;
+import net.orolle.vertigo.verticleflow.translate.NoderedToVertigo;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class FusionPassTest {
+  private final FusionPass fusion = new FusionPass(new HashSet<>(Arrays.asList("m~a~1")), "local");
+
+  @Test
+  public void directWiresFormOneChain() {
+    JsonArray flow = new JsonArray()
+    .addObject(new JsonObject().putString("id", "t").putString("type", "tab").putString("label", "net"))
+    .addObject(node("a", "m~a~1", "b"))
+    .addObject(node("b", "m~a~1", "c"))
+    .addObject(node("c", "m~a~1", null));
+
+    NoderedToVertigo translated = new NoderedToVertigo(flow);
+    JsonObject network = translated.translate().get(0);
+
+    assertEquals(new JsonArray().addArray(new JsonArray().addString("a").addString("b").addString("c")),
+        fusion.fuse(translated.graphs().get(0), network));
+    assertEquals("local", network.getObject("components").getObject("c").getString("group"));
+  }
+
+  @Test
+  public void groupingNodeEndsChain() {
+    // b -> fair -> c translates to the same selector as a direct wire, but the grouping was placed on purpose
+    JsonArray flow = new JsonArray()
+    .addObject(new JsonObject().putString("id", "t").putString("type", "tab").putString("label", "net"))
+    .addObject(node("a", "m~a~1", "b"))
+    .addObject(node("b", "m~a~1", "g"))
+    .addObject(node("g", "fair", "c"))
+    .addObject(node("c", "m~a~1", null));
+
+    NoderedToVertigo translated = new NoderedToVertigo(flow);
+    JsonObject network = translated.translate().get(0);
+
+    assertEquals(new JsonArray().addArray(new JsonArray().addString("a").addString("b")),
+        fusion.fuse(translated.graphs().get(0), network));
+    assertNull(network.getObject("components").getObject("c").getString("group"));
+  }
+
+  @Test
+  public void onlyFusibleSingleInstancesAreChained() {
+    JsonArray flow = new JsonArray()
+    .addObject(new JsonObject().putString("id", "t").putString("type", "tab").putString("label", "net"))
+    .addObject(node("a", "m~a~1", "b"))
+    .addObject(node("b", "m~a~1", "c").putString("instances", "2"))
+    .addObject(node("c", "m~other~1", null));
+
+    NoderedToVertigo translated = new NoderedToVertigo(flow);
+    assertEquals(0, fusion.fuse(translated.graphs().get(0), translated.translate().get(0)).size());
+  }
+
+  private static JsonObject node(String id, String type, String target) {
+    JsonObject wires = new JsonObject();
+    if(target != null) {
+      wires.putArray("out", new JsonArray().addObject(new JsonObject().putString("node", target).putString("port", "in")));
+    }
+    return new JsonObject().putString("id", id).putString("type", type).putString("z", "t").putObject("wires", wires);
+  }
+}
@@ -0,0 +1,65 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.orolle.vertigo.verticleflow.metrics.Histogram;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void smallValuesAreExact() {
+    Histogram h = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      h.record(i);
+    }
+
+    assertEquals(100, h.count());
+    assertEquals(50.5, h.mean(), 1e-9);
+    assertEquals(50, h.percentile(50));
+    assertEquals(99, h.percentile(99));
+    assertEquals(100, h.percentile(100));
+    assertEquals(100, h.max());
+  }
+
+  @Test
+  public void largeValuesStayWithinTheRelativeError() {
+    Histogram h = new Histogram();
+    for (long v = 1; v <= 1000000; v++) {
+      h.record(v);
+    }
+
+    for (double p : new double[]{1, 10, 50, 90, 99, 99.9}) {
+      double exact = Math.ceil(p / 100 * 1000000);
+      long estimate = h.percentile(p);
+      assertTrue(p+": "+estimate, estimate <= exact && estimate >= exact * (1 - 1.0 / 64));
+    }
+  }
+
+  @Test
+  public void percentileIsTheLowerBoundOfItsBucket() {
+    Histogram h = new Histogram();
+    h.record(Long.MAX_VALUE);
+
+    long p = h.percentile(100);
+    assertTrue(p <= h.max());
+    assertTrue(p >= Long.MAX_VALUE / 64 * 63);
+    assertEquals(Long.MAX_VALUE, h.max());
+  }
+
+  @Test
+  public void negativeValuesCountAsZeroAndResetClears() {
+    Histogram h = new Histogram();
+    h.record(-5);
+    assertEquals(0, h.percentile(50));
+    assertEquals(1, h.count());
+
+    h.reset();
+    assertEquals(0, h.count());
+    assertEquals(0, h.percentile(99));
+    assertEquals(0, h.max());
+    assertEquals(0, h.mean(), 0);
+  }
+}
@@ -0,0 +1,111 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.orolle.vertigo.verticleflow.translate.NetworkDiff;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class NetworkDiffTest {
+
+  @Test
+  public void networkWhichIsNotRunningIsDeployedCompletely() {
+    JsonObject target = network(component("a", 1), component("b", 1)).putArray("connections", connections(connection("a", "b", "fair")));
+    NetworkDiff diff = new NetworkDiff(null, target);
+
+    assertTrue(NetworkDiff.isEmpty(diff.removed()));
+    assertEquals(target.getObject("components"), diff.added().getObject("components"));
+    assertEquals(target.getArray("connections"), diff.added().getArray("connections"));
+    assertEquals("net", diff.added().getString("name"));
+  }
+
+  @Test
+  public void sameNetworkIsEmpty() {
+    JsonObject target = network(component("a", 1), component("b", 1)).putArray("connections", connections(connection("a", "b", "fair")));
+
+    assertTrue(new NetworkDiff(target.copy(), target).isEmpty());
+  }
+
+  @Test
+  public void defaultsAddedByVertigoAndNumberTypesAreIgnored() {
+    JsonObject target = network(component("a", 1));
+    JsonObject active = network(component("a", 1));
+    active.getObject("components").getObject("a").putNumber("instances", 1.0).putBoolean("multi-threaded", false)
+    .putObject("config", new JsonObject().putNumber("y", 2).putNumber("x", 1));
+    target.getObject("components").getObject("a").putObject("config", new JsonObject().putNumber("x", 1).putNumber("y", 2));
+
+    assertTrue(new NetworkDiff(active, target).isEmpty());
+  }
+
+  @Test
+  public void reconfiguredComponentIsRestartedWithItsConnections() {
+    JsonObject active = network(component("a", 1), component("b", 1), component("c", 1))
+        .putArray("connections", connections(connection("a", "b", "fair"), connection("b", "c", "fair")));
+    JsonObject target = network(component("a", 1), component("b", 2), component("c", 1))
+        .putArray("connections", connections(connection("a", "b", "fair"), connection("b", "c", "fair")));
+
+    NetworkDiff diff = new NetworkDiff(active, target);
+    assertEquals(1, diff.removed().getObject("components").size());
+    assertEquals(1, diff.removed().getObject("components").getObject("b").getInteger("instances").intValue());
+    assertEquals(2, diff.added().getObject("components").getObject("b").getInteger("instances").intValue());
+    assertEquals(2, diff.removed().getArray("connections").size());
+    assertEquals(2, diff.added().getArray("connections").size());
+    assertFalse(diff.added().getObject("components").containsField("a"));
+  }
+
+  @Test
+  public void changedSelectorReplacesOnlyTheConnection() {
+    JsonObject active = network(component("a", 1), component("b", 1)).putArray("connections", connections(connection("a", "b", "fair")));
+    JsonObject target = network(component("a", 1), component("b", 1)).putArray("connections", connections(connection("a", "b", "round-robin")));
+
+    NetworkDiff diff = new NetworkDiff(active, target);
+    assertEquals(0, diff.removed().getObject("components").size());
+    assertEquals(0, diff.added().getObject("components").size());
+    assertEquals(connections(connection("a", "b", "fair")), diff.removed().getArray("connections"));
+    assertEquals(connections(connection("a", "b", "round-robin")), diff.added().getArray("connections"));
+  }
+
+  @Test
+  public void removedComponentIsUndeployedWithItsConnections() {
+    JsonObject active = network(component("a", 1), component("b", 1)).putArray("connections", connections(connection("a", "b", "fair")));
+    JsonObject target = network(component("a", 1));
+
+    NetworkDiff diff = new NetworkDiff(active, target);
+    assertTrue(diff.removed().getObject("components").containsField("b"));
+    assertEquals(1, diff.removed().getArray("connections").size());
+    assertTrue(NetworkDiff.isEmpty(diff.added()));
+    assertEquals(new JsonObject().putNumber("removedComponents", 1).putNumber("removedConnections", 1)
+        .putNumber("addedComponents", 0).putNumber("addedConnections", 0), diff.summary());
+  }
+
+  private static JsonObject network(JsonObject... components) {
+    JsonObject comps = new JsonObject();
+    for (JsonObject c : components) {
+      comps.putObject(c.getString("name"), c);
+    }
+    return new JsonObject().putString("name", "net").putObject("components", comps).putArray("connections", new JsonArray());
+  }
+
+  private static JsonObject component(String id, int instances) {
+    return new JsonObject().putString("name", id).putString("type", "module").putString("module", "m~"+id+"~1").putNumber("instances", instances);
+  }
+
+  private static JsonArray connections(JsonObject... cons) {
+    JsonArray res = new JsonArray();
+    for (JsonObject con : cons) {
+      res.addObject(con);
+    }
+    return res;
+  }
+
+  private static JsonObject connection(String source, String target, String selector) {
+    return new JsonObject()
+    .putObject("source", new JsonObject().putString("component", source).putString("port", "out"))
+    .putObject("target", new JsonObject().putString("component", target).putString("port", "in"))
+    .putObject("selector", new JsonObject().putString("type", selector));
+  }
+}
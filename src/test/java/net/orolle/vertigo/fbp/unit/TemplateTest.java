@@ -0,0 +1,45 @@
+package net.orolle.vertigo.fbp.unit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import net.orolle.vertigo.verticleflow.util.Template;
+
+import org.junit.Test;
+
+public class TemplateTest {
+
+  @Test
+  public void placeholdersAreReplacedByRawValues() {
+    Template t = Template.compile("RED.nodes.registerType(\"<NAME>\", {color: \"<COLOR>\", inputs: \"<INPUTS>\"});");
+    Map<String, String> values = new HashMap<>();
+    values.put("NAME", "'m~a~1'");
+    values.put("COLOR", "'#fff'");
+    values.put("INPUTS", "1");
+
+    assertEquals("RED.nodes.registerType('m~a~1', {color: '#fff', inputs: 1});", t.render(values));
+  }
+
+  @Test
+  public void placeholdersWithoutValueAreKept() {
+    Template t = Template.compile("a \"<X>\" b \"<Y>\" c \"<X>\"");
+    Map<String, String> values = new HashMap<>();
+    values.put("X", "1");
+
+    assertEquals("a 1 b \"<Y>\" c 1", t.render(values));
+    assertEquals(new LinkedHashSet<>(Arrays.asList("X", "Y")), t.placeholders());
+  }
+
+  @Test
+  public void onlyQuotedUpperCaseTokensArePlaceholders() {
+    String text = "<X> \"<lower>\" \"X\" \"\"";
+    Template t = Template.compile(text);
+
+    assertEquals(0, t.placeholders().size());
+    assertEquals(text, t.render(new HashMap<String, String>()));
+  }
+}